@@ -3,6 +3,7 @@ import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
 plugins {
     java
     kotlin("jvm") version "1.3.61"
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 group = "nl.avans"
@@ -27,6 +28,13 @@ dependencies {
     testImplementation("org.junit.jupiter", "junit-jupiter", "5.6.0")
 }
 
+jmh {
+    jmhVersion = "1.23"
+    // JSON results can be diffed between runs, or loaded into jmh.morethan.io
+    resultFormat = "JSON"
+    resultsFile = project.file("${project.buildDir}/reports/jmh/results.json")
+}
+
 configure<JavaPluginConvention> {
     sourceCompatibility = JavaVersion.VERSION_11
 }
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Inputs for the benchmarks: the sample files of the test resources, and
+ * synthetic pools and epochs of any size signed with the sample key pairs.
+ * The same seed always gives the same pool and epoch.
+ */
+public class BenchmarkData {
+    private static final int OUTPUTS_PER_GENESIS_TX = 100;
+    private static final double GENESIS_VALUE = 10;
+
+    private static SampleKeyPairs keyPairs;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns a file holding the test resource name. The grader's file
+     * handlers need a path, and in the jmh jar the resources are jar entries,
+     * so they are copied out first.
+     */
+    public static String resource(String name) {
+        try (final var in = BenchmarkData.class.getResourceAsStream("/" + name)) {
+            if (in == null)
+                throw new IllegalArgumentException("No resource " + name);
+            final var file = Files.createTempFile("benchmark", name);
+            file.toFile().deleteOnExit();
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            return file.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static synchronized SampleKeyPairs keyPairs() {
+        if (keyPairs == null) {
+            try {
+                keyPairs = SampleKeyPairsFileHandler.readKeyPairsFromFile(resource("SampleKeyPairs.txt"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return keyPairs;
+    }
+
+    public static UTXOPool samplePool() {
+        try {
+            return SampleUTXOPoolFileHandler.readSampleUTXOPoolFromFile(keyPairs(), resource("SampleUTXOPool.txt")).getPool();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Transaction[] sampleTxs(String name) {
+        try {
+            return TransactionsArrayFileHandler.readTransactionsFromFile(resource(name + ".txt"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A synthetic pool of poolSize UTXOs worth 10 each, owned by the sample key
+     * pairs, and an epoch of epochSize transactions that each spend inputs of
+     * them and create outputs outputs. Every signature is valid. When
+     * epochSize * inputs exceeds poolSize, the later transactions spend UTXOs
+     * that earlier ones already spent.
+     */
+    public static class Synthetic {
+        private final UTXOPool pool = new UTXOPool();
+        private final Transaction[] epoch;
+
+        public Synthetic(int poolSize, int epochSize, int inputs, int outputs, long seed) {
+            final var random = new Random(seed);
+            final var people = keyPairs().getPeople();
+            final var utxos = new ArrayList<UTXO>(poolSize);
+            final var owners = new ArrayList<RSAKeyPairHelper>(poolSize);
+
+            for (var created = 0; created < poolSize; ) {
+                final var genesis = new Transaction();
+                final var genesisOwners = new ArrayList<RSAKeyPairHelper>();
+                for (var i = 0; i < OUTPUTS_PER_GENESIS_TX && created + i < poolSize; i++) {
+                    final var owner = people.get(random.nextInt(people.size()));
+                    genesis.addOutput(GENESIS_VALUE, owner.getPublicKey());
+                    genesisOwners.add(owner);
+                }
+                genesis.computeHash();
+                for (var i = 0; i < genesis.numOutputs(); i++) {
+                    final var utxo = new UTXO(genesis.getHash(), i);
+                    pool.addUTXO(utxo, genesis.getOutput(i));
+                    utxos.add(utxo);
+                    owners.add(genesisOwners.get(i));
+                }
+                created += genesis.numOutputs();
+            }
+
+            epoch = new Transaction[epochSize];
+            var next = 0;
+            for (var t = 0; t < epochSize; t++) {
+                final var tx = new Transaction();
+                final var spent = new int[inputs];
+                for (var i = 0; i < inputs; i++) {
+                    spent[i] = next++ % poolSize;
+                    tx.addInput(utxos.get(spent[i]).getTxHash(), utxos.get(spent[i]).getIndex());
+                }
+                final var value = inputs * GENESIS_VALUE * 0.9 / outputs;
+                for (var i = 0; i < outputs; i++)
+                    tx.addOutput(value, people.get(random.nextInt(people.size())).getPublicKey());
+                for (var i = 0; i < inputs; i++)
+                    tx.addSignature(owners.get(spent[i]).getPrivateKey().sign(tx.getRawDataToSign(i)), i);
+                tx.computeHash();
+                epoch[t] = tx;
+            }
+        }
+
+        public UTXOPool getPool() {
+            return pool;
+        }
+
+        public Transaction[] getEpoch() {
+            return epoch;
+        }
+    }
+}
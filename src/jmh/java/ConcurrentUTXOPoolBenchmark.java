@@ -0,0 +1,117 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how a UTXOPool shared by several threads holds up under
+ * contention: a plain UTXOPool behind one global lock against a
+ * ConcurrentUTXOPool. Every thread spends two random UTXOs at once and puts
+ * them back, or looks one up. JMH runs a fixed number of threads per run, so
+ * main runs the benchmark for 1, 2, 4, ... and finally N threads:
+ *
+ *   java -cp build/libs/ScroogeCoin-1.0-jmh.jar ConcurrentUTXOPoolBenchmark 16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentUTXOPoolBenchmark {
+    @Param({"global-lock", "striped"})
+    public String pool;
+
+    @Param({"100000"})
+    public int utxos;
+
+    private UTXOPool utxoPool;
+    private boolean globalLock;
+    private UTXO[] all;
+    private Transaction.Output output;
+
+    @Setup
+    public void setUp() {
+        globalLock = pool.equals("global-lock");
+        utxoPool = globalLock ? new UTXOPool() : new ConcurrentUTXOPool();
+
+        final var random = new Random(42);
+        final var tx = new Transaction();
+        tx.addOutput(1, new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random)));
+        output = tx.getOutput(0);
+
+        all = new UTXO[utxos];
+        for (var i = 0; i < utxos; i++) {
+            final var txHash = new byte[32];
+            random.nextBytes(txHash);
+            all[i] = new UTXO(txHash, 0);
+            utxoPool.addUTXO(all[i], output);
+        }
+    }
+
+    @Benchmark
+    public boolean checkAndSpend() {
+        final var random = ThreadLocalRandom.current();
+        final var inputs = new UTXO[] {all[random.nextInt(all.length)], all[random.nextInt(all.length)]};
+        if (!spendAll(inputs))
+            return false;
+        for (final var input : inputs)
+            addUTXO(input);
+        return true;
+    }
+
+    @Benchmark
+    public Transaction.Output lookup() {
+        final var utxo = all[ThreadLocalRandom.current().nextInt(all.length)];
+        if (!globalLock)
+            return utxoPool.getTxOutput(utxo);
+        synchronized (utxoPool) {
+            return utxoPool.getTxOutput(utxo);
+        }
+    }
+
+    private boolean spendAll(UTXO[] inputs) {
+        if (!globalLock)
+            return utxoPool.spendAll(inputs);
+        synchronized (utxoPool) {
+            return utxoPool.spendAll(inputs);
+        }
+    }
+
+    private void addUTXO(UTXO utxo) {
+        if (!globalLock) {
+            utxoPool.addUTXO(utxo, output);
+            return;
+        }
+        synchronized (utxoPool) {
+            utxoPool.addUTXO(utxo, output);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final var maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        for (var threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            new Runner(new OptionsBuilder()
+                    .include(ConcurrentUTXOPoolBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+            if (threads >= maxThreads)
+                break;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the persistent pools: committing an epoch that spends and creates
+ * epochSize UTXOs and syncing it, on a LoggedUTXOPool (one log record and one
+ * fsync per epoch, plus a checkpoint every checkpointInterval epochs) and on
+ * a MappedUTXOPool (a journal of slot images and forced table pages), and
+ * reopening the pool after all of those epochs, which for a LoggedUTXOPool
+ * loads its checkpoint and replays less than checkpointInterval records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurableUTXOPoolBenchmark {
+    @Param({"LoggedUTXOPool", "MappedUTXOPool"})
+    public String pool;
+
+    @Param({"100000"})
+    public int poolSize;
+
+    @Param({"100"})
+    public int epochSize;
+
+    @Param({"64"})
+    public int checkpointInterval;
+
+    private Path directory;
+    private UTXOPool utxoPool;
+    private UTXO[] utxos;
+    private Transaction.Output output;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark");
+        utxoPool = open();
+
+        final var random = new Random(42);
+        final var tx = new Transaction();
+        tx.addOutput(1, new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random)));
+        output = tx.getOutput(0);
+        utxos = new UTXO[poolSize];
+        for (var i = 0; i < poolSize; i++) {
+            final var txHash = new byte[32];
+            random.nextBytes(txHash);
+            utxos[i] = new UTXO(txHash, 0);
+            utxoPool.addUTXO(utxos[i], output);
+        }
+        utxoPool.sync();
+        // some history for reopen: a few checkpoints' worth of epochs and a log tail
+        for (var epoch = 0; epoch < checkpointInterval * 3 + checkpointInterval / 2; epoch++)
+            syncEpoch();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ((Closeable) utxoPool).close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (final var path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+                Files.delete(path);
+        }
+    }
+
+    // Spends epochSize UTXOs, creates as many in their place and syncs the pool
+    @Benchmark
+    public boolean syncEpoch() {
+        final var batch = new UTXOBatch(epochSize, epochSize);
+        for (var i = 0; i < epochSize; i++) {
+            final var position = next;
+            next = next + 1 < utxos.length ? next + 1 : 0;
+            final var spent = utxos[position];
+            batch.spend(spent);
+            utxos[position] = new UTXO(spent.getTxHash(), spent.getIndex() + 1);
+            batch.create(utxos[position], output);
+        }
+        final var applied = utxoPool.apply(batch);
+        utxoPool.sync();
+        return applied;
+    }
+
+    // Opens a second instance over the same files, as a restart would
+    @Benchmark
+    public UTXOPool reopen() throws IOException {
+        final var reopened = open();
+        ((Closeable) reopened).close();
+        return reopened;
+    }
+
+    private UTXOPool open() throws IOException {
+        return pool.equals("MappedUTXOPool")
+                ? new MappedUTXOPool(directory)
+                : new LoggedUTXOPool(directory, checkpointInterval);
+    }
+}
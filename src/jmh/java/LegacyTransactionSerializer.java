@@ -0,0 +1,83 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * The original ArrayList<Byte> based serialization of Transaction, kept
+ * verbatim so the benchmarks can compare the current implementation against it.
+ */
+public class LegacyTransactionSerializer {
+    private LegacyTransactionSerializer() {
+    }
+
+    public static byte[] getRawDataToSign(Transaction tx, int index) {
+        // ith input and all outputs
+        ArrayList<Byte> sigData = new ArrayList<>();
+        if (index > tx.getInputs().size())
+            return null;
+        Transaction.Input in = tx.getInputs().get(index);
+        byte[] prevTxHash = in.prevTxHash;
+        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
+        b.putInt(in.outputIndex);
+        byte[] outputIndex = b.array();
+        if (prevTxHash != null)
+            for (int i = 0; i < prevTxHash.length; i++)
+                sigData.add(prevTxHash[i]);
+        for (int i = 0; i < outputIndex.length; i++)
+            sigData.add(outputIndex[i]);
+        for (Transaction.Output op : tx.getOutputs()) {
+            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
+            bo.putDouble(op.value);
+            byte[] value = bo.array();
+            byte[] addressExponent = op.address.getExponent().toByteArray();
+            byte[] addressModulus = op.address.getModulus().toByteArray();
+            for (int i = 0; i < value.length; i++)
+                sigData.add(value[i]);
+            for (int i = 0; i < addressExponent.length; i++)
+                sigData.add(addressExponent[i]);
+            for (int i = 0; i < addressModulus.length; i++)
+                sigData.add(addressModulus[i]);
+        }
+        byte[] sigD = new byte[sigData.size()];
+        int i = 0;
+        for (Byte sb : sigData)
+            sigD[i++] = sb;
+        return sigD;
+    }
+
+    public static byte[] getRawTx(Transaction tx) {
+        ArrayList<Byte> rawTx = new ArrayList<>();
+        for (Transaction.Input in : tx.getInputs()) {
+            byte[] prevTxHash = in.prevTxHash;
+            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
+            b.putInt(in.outputIndex);
+            byte[] outputIndex = b.array();
+            byte[] signature = in.signature;
+            if (prevTxHash != null)
+                for (int i = 0; i < prevTxHash.length; i++)
+                    rawTx.add(prevTxHash[i]);
+            for (int i = 0; i < outputIndex.length; i++)
+                rawTx.add(outputIndex[i]);
+            if (signature != null)
+                for (int i = 0; i < signature.length; i++)
+                    rawTx.add(signature[i]);
+        }
+        for (Transaction.Output op : tx.getOutputs()) {
+            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
+            b.putDouble(op.value);
+            byte[] value = b.array();
+            byte[] addressExponent = op.address.getExponent().toByteArray();
+            byte[] addressModulus = op.address.getModulus().toByteArray();
+            for (int i = 0; i < value.length; i++)
+                rawTx.add(value[i]);
+            for (int i = 0; i < addressExponent.length; i++)
+                rawTx.add(addressExponent[i]);
+            for (int i = 0; i < addressModulus.length; i++)
+                rawTx.add(addressModulus[i]);
+        }
+        byte[] raw = new byte[rawTx.size()];
+        int i = 0;
+        for (Byte b : rawTx)
+            raw[i++] = b;
+        return raw;
+    }
+}
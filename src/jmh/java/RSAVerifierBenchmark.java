@@ -0,0 +1,64 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time of one signature verification with
+ * RSAKey.verifySignature and with RSAVerifier, over the signatures of a
+ * synthetic epoch. With a forged signature the padding check fails instead
+ * of the digest comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RSAVerifierBenchmark {
+    @Param({"false", "true"})
+    public boolean forged;
+
+    private byte[][] messages;
+    private byte[][] signatures;
+    private RSAKey[] addresses;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final var data = new BenchmarkData.Synthetic(1000, 100, 1, 1, 42);
+        final var epoch = data.getEpoch();
+        messages = new byte[epoch.length][];
+        signatures = new byte[epoch.length][];
+        addresses = new RSAKey[epoch.length];
+        for (var i = 0; i < epoch.length; i++) {
+            final var input = epoch[i].getInput(0);
+            messages[i] = epoch[i].getRawDataToSign(0);
+            signatures[i] = input.signature.clone();
+            if (forged)
+                signatures[i][signatures[i].length - 1] ^= 1;
+            addresses[i] = data.getPool().getTxOutput(new UTXO(input.prevTxHash, input.outputIndex)).address;
+        }
+    }
+
+    @Benchmark
+    public boolean rsaKey() {
+        next = next + 1 < messages.length ? next + 1 : 0;
+        return addresses[next].verifySignature(messages[next], signatures[next]);
+    }
+
+    @Benchmark
+    public boolean rsaVerifier() {
+        next = next + 1 < messages.length ? next + 1 : 0;
+        return RSAVerifier.verifySignature(addresses[next], messages[next], signatures[next]);
+    }
+}
@@ -0,0 +1,61 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TxHandler and MaxFeeTxHandler on the sample epochs the tests use,
+ * so results can be compared with what the grader checks. Each handleTxs
+ * call runs on a fresh fork of the sample pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleTxsBenchmark {
+    @Param({"SampleTxsTest1-1", "SampleTxsTest2-1", "SampleTxsTest3-1", "SampleTxsTest4-1",
+            "SampleTxsTest5-1", "SampleTxsTest6-1", "SampleTxsTest7-1", "SampleTxsTest8-1"})
+    public String sample;
+
+    private UTXOPool pool;
+    private Transaction[] txs;
+    private TxHandler handler;
+
+    @Setup
+    public void setUp() {
+        pool = BenchmarkData.samplePool();
+        txs = BenchmarkData.sampleTxs(sample);
+        handler = new TxHandler(pool);
+    }
+
+    @Benchmark
+    public int isValidTxForAll() {
+        var valid = 0;
+        for (final var tx : txs) {
+            if (handler.isValidTx(tx))
+                valid++;
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public Transaction[] handleTxs() {
+        return new TxHandler(pool.fork()).handleTxs(txs.clone());
+    }
+
+    @Benchmark
+    public Transaction[] maxFeeHandleTxs() {
+        return new MaxFeeTxHandler(pool.fork()).handleTxs(txs.clone());
+    }
+}
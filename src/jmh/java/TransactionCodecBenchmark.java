@@ -0,0 +1,77 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading an epoch file through the grader's ObjectInputStream
+ * handler with reading the same transactions in the TransactionCodec format,
+ * from a memory-mapped file and from a buffer already in memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionCodecBenchmark {
+    @Param({"SampleTxsTest1-1", "SampleTxsTest7-1", "SampleTxsTest8-1"})
+    public String sample;
+
+    private String objectFile;
+    private Path codecFile;
+    private ByteBuffer records;
+    private Transaction[] txs;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectFile = BenchmarkData.resource(sample + ".txt");
+        txs = BenchmarkData.sampleTxs(sample);
+        codecFile = Files.createTempFile("benchmark", ".bin");
+        TransactionCodec.write(codecFile, txs);
+        records = ByteBuffer.wrap(Files.readAllBytes(codecFile));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(codecFile);
+    }
+
+    @Benchmark
+    public Transaction[] readObjectStream() throws IOException {
+        return TransactionsArrayFileHandler.readTransactionsFromFile(objectFile);
+    }
+
+    @Benchmark
+    public Transaction[] readMapped() throws IOException {
+        return TransactionCodec.read(codecFile);
+    }
+
+    @Benchmark
+    public Transaction[] decodeFromMemory() {
+        records.position(Integer.BYTES);
+        return TransactionCodec.decodeAll(records);
+    }
+
+    @Benchmark
+    public int encode() {
+        var size = 0;
+        for (final var tx : txs)
+            size += TransactionCodec.encode(tx).length;
+        return size;
+    }
+}
@@ -0,0 +1,122 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Transaction.getRawTx, getRawDataToSign and computeHash against the original
+ * ArrayList<Byte> implementation. Run with ./gradlew jmh; adding "gc" to
+ * the profilers of the jmh block in build.gradle.kts shows the allocation
+ * rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionSerializationBenchmark {
+    @Param({"1", "20"})
+    public int inputs;
+
+    @Param({"1", "20"})
+    public int outputs;
+
+    private Transaction tx;
+    private ByteBuffer heapBuffer;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setUp() {
+        final var random = new Random(42);
+        tx = new Transaction();
+        for (var i = 0; i < inputs; i++) {
+            final var prevTxHash = new byte[32];
+            random.nextBytes(prevTxHash);
+            tx.addInput(prevTxHash, i);
+            final var signature = new byte[66];
+            random.nextBytes(signature);
+            tx.addSignature(signature, i);
+        }
+        for (var i = 0; i < outputs; i++)
+            tx.addOutput(random.nextDouble() * 20, new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random)));
+
+        heapBuffer = ByteBuffer.allocate(tx.getRawTxSize());
+        directBuffer = ByteBuffer.allocateDirect(tx.getRawTxSize());
+    }
+
+    @Benchmark
+    public byte[] legacyGetRawTx() {
+        return LegacyTransactionSerializer.getRawTx(tx);
+    }
+
+    @Benchmark
+    public byte[] getRawTx() {
+        return tx.getRawTx();
+    }
+
+    @Benchmark
+    public ByteBuffer writeRawTxToReusedHeapBuffer() {
+        heapBuffer.clear();
+        tx.writeRawTx(heapBuffer);
+        return heapBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeRawTxToReusedDirectBuffer() {
+        directBuffer.clear();
+        tx.writeRawTx(directBuffer);
+        return directBuffer;
+    }
+
+    @Benchmark
+    public byte[] legacyGetRawDataToSign() {
+        return LegacyTransactionSerializer.getRawDataToSign(tx, inputs - 1);
+    }
+
+    @Benchmark
+    public byte[] getRawDataToSign() {
+        return tx.getRawDataToSign(inputs - 1);
+    }
+
+    @Benchmark
+    public int legacyGetRawDataToSignForAllInputs() {
+        var length = 0;
+        for (var i = 0; i < inputs; i++)
+            length += LegacyTransactionSerializer.getRawDataToSign(tx, i).length;
+        return length;
+    }
+
+    @Benchmark
+    public int getRawDataToSignForAllInputs() {
+        var length = 0;
+        for (var i = 0; i < inputs; i++)
+            length += tx.getRawDataToSign(i).length;
+        return length;
+    }
+
+    @Benchmark
+    public byte[] legacyFinalize() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(LegacyTransactionSerializer.getRawTx(tx));
+    }
+
+    @Benchmark
+    public byte[] finalizeTx() {
+        tx.computeHash();
+        return tx.getHash();
+    }
+}
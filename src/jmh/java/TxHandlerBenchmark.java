@@ -0,0 +1,101 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TxHandler.isValidTx, its precheck and pool-dependent phases,
+ * handleTxs and EpochPipeline on synthetic epochs, over input and output
+ * counts, pool sizes and epoch sizes. Every epoch runs on a fresh fork of the
+ * pool, so each invocation sees the same pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxHandlerBenchmark {
+    @Param({"1", "4", "64"})
+    public int inputs;
+
+    @Param({"1", "4"})
+    public int outputs;
+
+    @Param({"1000", "100000"})
+    public int poolSize;
+
+    @Param({"10", "100"})
+    public int epochSize;
+
+    private UTXOPool pool;
+    private Transaction[] epoch;
+    private TxHandler.Precheck[] prechecks;
+    private TxHandler handler;
+    private SignatureVerifier parallelVerifier;
+    private SignatureVerifier cachingVerifier;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final var data = new BenchmarkData.Synthetic(poolSize, epochSize, inputs, outputs, 42);
+        pool = data.getPool();
+        epoch = data.getEpoch();
+        handler = new TxHandler(pool);
+        prechecks = Arrays.stream(epoch).map(TxHandler::precheck).toArray(TxHandler.Precheck[]::new);
+        parallelVerifier = new SignatureVerifier(ForkJoinPool.commonPool());
+        cachingVerifier = new SignatureVerifier(null, new VerificationCache(1 << 16));
+    }
+
+    @Benchmark
+    public boolean isValidTx() {
+        next = next + 1 < epoch.length ? next + 1 : 0;
+        return handler.isValidTx(epoch[next]);
+    }
+
+    // The checks that need no pool, which handleTxs and EpochPipeline run ahead of the pool-dependent ones
+    @Benchmark
+    public TxHandler.Precheck precheck() {
+        next = next + 1 < epoch.length ? next + 1 : 0;
+        return TxHandler.precheck(epoch[next]);
+    }
+
+    @Benchmark
+    public boolean isValidTxPrechecked() {
+        next = next + 1 < epoch.length ? next + 1 : 0;
+        return handler.isValidTx(prechecks[next]);
+    }
+
+    @Benchmark
+    public Transaction[] handleTxs() {
+        return new TxHandler(pool.fork()).handleTxs(epoch.clone());
+    }
+
+    @Benchmark
+    public Transaction[] handleTxsWithParallelVerifier() {
+        return new TxHandler(pool.fork(), parallelVerifier).handleTxs(epoch.clone());
+    }
+
+    // The same epoch proposed again and again, so after the first call every signature is a cache hit
+    @Benchmark
+    public Transaction[] handleTxsWithVerificationCache() {
+        return new TxHandler(pool.fork(), cachingVerifier).handleTxs(epoch.clone());
+    }
+
+    // The epoch streamed through EpochPipeline, hashing and verifying on one worker per processor
+    @Benchmark
+    public long pipeline() {
+        return new EpochPipeline(pool.fork()).run(Arrays.asList(epoch).iterator(), tx -> { }).getAccepted();
+    }
+}
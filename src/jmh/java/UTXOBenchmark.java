@@ -0,0 +1,102 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares UTXO against the original implementation: HashMap lookups with
+ * keys equal to, but not the same objects as, the stored ones (what every
+ * pool lookup does), and sorting in the natural order and in HASH_ORDER.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTXOBenchmark {
+    @Param({"1000", "1000000"})
+    public int size;
+
+    private HashMap<UTXO, Integer> map;
+    private HashMap<LegacyUTXO, Integer> legacyMap;
+    private UTXO[] keys;
+    private LegacyUTXO[] legacyKeys;
+    private UTXO[] unsorted;
+    private LegacyUTXO[] legacyUnsorted;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final var random = new Random(42);
+        map = new HashMap<>();
+        legacyMap = new HashMap<>();
+        keys = new UTXO[size];
+        legacyKeys = new LegacyUTXO[size];
+        final var txHash = new byte[32];
+        for (var i = 0; i < size; i++) {
+            random.nextBytes(txHash);
+            map.put(new UTXO(txHash, i % 4), i);
+            legacyMap.put(new LegacyUTXO(txHash, i % 4), i);
+            keys[i] = new UTXO(txHash, i % 4);
+            legacyKeys[i] = new LegacyUTXO(txHash, i % 4);
+        }
+        // visit the keys in a different order than they were added
+        for (var i = size - 1; i > 0; i--) {
+            final var j = random.nextInt(i + 1);
+            final var swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+            final var legacySwap = legacyKeys[i];
+            legacyKeys[i] = legacyKeys[j];
+            legacyKeys[j] = legacySwap;
+        }
+        unsorted = Arrays.copyOf(keys, Math.min(size, 10000));
+        legacyUnsorted = Arrays.copyOf(legacyKeys, unsorted.length);
+    }
+
+    @Benchmark
+    public Integer lookup() {
+        next = next + 1 < keys.length ? next + 1 : 0;
+        return map.get(keys[next]);
+    }
+
+    @Benchmark
+    public Integer lookupLegacy() {
+        next = next + 1 < legacyKeys.length ? next + 1 : 0;
+        return legacyMap.get(legacyKeys[next]);
+    }
+
+    @Benchmark
+    public UTXO[] sort() {
+        final var sorted = unsorted.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public LegacyUTXO[] sortLegacy() {
+        final var sorted = legacyUnsorted.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public UTXO[] sortByHash() {
+        final var sorted = unsorted.clone();
+        Arrays.sort(sorted, UTXO.HASH_ORDER);
+        return sorted;
+    }
+}
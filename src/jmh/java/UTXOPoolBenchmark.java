@@ -0,0 +1,145 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lookups in the UTXOPool variants over pool sizes. The keys looked
+ * up are separate UTXO objects equal to the stored ones, like the UTXOs
+ * TxHandler used to build from transaction inputs, or a hash and an index
+ * like the inputs themselves. With -prof gc the lookups by hash and index
+ * show no allocation on UTXOPool and ConcurrentUTXOPool; the pools that do
+ * not store Output objects only allocate the Output they return. The
+ * queries for the unspent outputs of a transaction and of an address scan
+ * the whole pool except on IndexedUTXOPool. The sums scan the whole pool,
+ * with and without copying it into a list first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTXOPoolBenchmark {
+    @Param({"UTXOPool", "CompactUTXOPool", "ConcurrentUTXOPool", "IndexedUTXOPool"})
+    public String pool;
+
+    @Param({"1000", "100000", "1000000"})
+    public int poolSize;
+
+    private UTXOPool utxoPool;
+    private UTXO[] present;
+    private UTXO[] absent;
+    private RSAKey address;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        switch (pool) {
+            case "CompactUTXOPool":
+                utxoPool = new CompactUTXOPool(poolSize);
+                break;
+            case "ConcurrentUTXOPool":
+                utxoPool = new ConcurrentUTXOPool();
+                break;
+            case "IndexedUTXOPool":
+                utxoPool = new IndexedUTXOPool();
+                break;
+            default:
+                utxoPool = new UTXOPool();
+        }
+
+        final var random = new Random(42);
+        final var tx = new Transaction();
+        tx.addOutput(1, new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random)));
+        tx.addOutput(1, new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random)));
+        final var output = tx.getOutput(0);
+        address = tx.getOutput(1).address;
+
+        present = new UTXO[poolSize];
+        absent = new UTXO[poolSize];
+        final var txHash = new byte[32];
+        for (var i = 0; i < poolSize; i++) {
+            random.nextBytes(txHash);
+            utxoPool.addUTXO(new UTXO(txHash, i % 4), i % 1000 == 0 ? tx.getOutput(1) : output);
+            present[i] = new UTXO(txHash, i % 4);
+            absent[i] = new UTXO(txHash, 4);
+        }
+        // visit the keys in a different order than they were added
+        for (var i = poolSize - 1; i > 0; i--) {
+            final var j = random.nextInt(i + 1);
+            final var swap = present[i];
+            present[i] = present[j];
+            present[j] = swap;
+        }
+    }
+
+    @Benchmark
+    public Transaction.Output getTxOutput() {
+        next = next + 1 < present.length ? next + 1 : 0;
+        return utxoPool.getTxOutput(present[next]);
+    }
+
+    @Benchmark
+    public Transaction.Output getTxOutputNewKey() {
+        next = next + 1 < present.length ? next + 1 : 0;
+        return utxoPool.getTxOutput(new UTXO(present[next].getTxHash(), present[next].getIndex()));
+    }
+
+    @Benchmark
+    public Transaction.Output getTxOutputByHash() {
+        next = next + 1 < present.length ? next + 1 : 0;
+        return utxoPool.getTxOutput(present[next].getTxHash(), present[next].getIndex());
+    }
+
+    @Benchmark
+    public boolean containsMissing() {
+        next = next + 1 < absent.length ? next + 1 : 0;
+        return utxoPool.contains(absent[next]);
+    }
+
+    @Benchmark
+    public boolean containsMissingByHash() {
+        next = next + 1 < absent.length ? next + 1 : 0;
+        return utxoPool.contains(absent[next].getTxHash(), absent[next].getIndex());
+    }
+
+    @Benchmark
+    public int[] getUnspentIndices() {
+        next = next + 1 < present.length ? next + 1 : 0;
+        return utxoPool.getUnspentIndices(present[next].getTxHash());
+    }
+
+    // One in a thousand UTXOs belongs to this address
+    @Benchmark
+    public ArrayList<UTXO> getUTXOsOf() {
+        return utxoPool.getUTXOsOf(address);
+    }
+
+    // A full scan summing the values, copying all UTXOs first
+    @Benchmark
+    public double sumWithGetAllUTXO() {
+        var sum = 0.0;
+        for (final var utxo : utxoPool.getAllUTXO())
+            sum += utxoPool.getTxOutput(utxo).value;
+        return sum;
+    }
+
+    // The same scan over a stream of the pool, which copies nothing up front
+    @Benchmark
+    public double sumWithStream() {
+        return utxoPool.stream().mapToDouble(utxo -> utxoPool.getTxOutput(utxo).value).sum();
+    }
+}
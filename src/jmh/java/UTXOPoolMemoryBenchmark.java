@@ -0,0 +1,55 @@
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Measures how many bytes of heap each UTXO takes in a UTXOPool and in a
+ * CompactUTXOPool. JMH does not measure retained memory, so this is a plain
+ * program: run it with the jmh jar on the classpath, optionally passing the
+ * number of UTXOs and the number of distinct addresses.
+ *
+ *   java -cp build/libs/ScroogeCoin-1.0-jmh.jar UTXOPoolMemoryBenchmark 1000000 1000
+ */
+public class UTXOPoolMemoryBenchmark {
+    public static void main(String[] args) {
+        final var utxoCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final var addressCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        final var random = new Random(42);
+        final var addresses = new RSAKey[addressCount];
+        for (var i = 0; i < addressCount; i++)
+            addresses[i] = new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random));
+
+        System.out.printf("%,d UTXOs, %,d addresses%n", utxoCount, addressCount);
+        System.out.printf("UTXOPool:        %6.1f bytes/UTXO%n", bytesPerUtxo(new UTXOPool(), utxoCount, addresses));
+        System.out.printf("CompactUTXOPool: %6.1f bytes/UTXO%n", bytesPerUtxo(new CompactUTXOPool(), utxoCount, addresses));
+    }
+
+    private static double bytesPerUtxo(UTXOPool pool, int utxoCount, RSAKey[] addresses) {
+        final var random = new Random(7);
+        final var before = usedHeap();
+        final var txHash = new byte[32];
+        var tx = new Transaction();
+        for (var i = 0; i < utxoCount; i++) {
+            // a few outputs per transaction, like real epochs
+            if (i % 4 == 0) {
+                random.nextBytes(txHash);
+                tx = new Transaction();
+            }
+            // outputs are made through addOutput: the grader jar declares its own Transaction.Output,
+            // and depending on the compilation order javac can take its (non-static) nesting for ours
+            tx.addOutput(random.nextDouble() * 20, addresses[i % addresses.length]);
+            pool.addUTXO(new UTXO(txHash, i % 4), tx.getOutput(i % 4));
+        }
+        final var after = usedHeap();
+        if (pool.getAllUTXO().size() != utxoCount)
+            throw new IllegalStateException("lost UTXOs");
+        return (after - before) / (double) utxoCount;
+    }
+
+    private static long usedHeap() {
+        for (var i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
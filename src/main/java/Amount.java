@@ -0,0 +1,78 @@
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point coin amounts. An amount is a long number of units, where one
+ * coin is UNITS_PER_COIN units, so amounts add up exactly and a sum that no
+ * longer fits is detected instead of silently losing precision.
+ *
+ * Transaction.Output keeps its value in coins as a double, because that is
+ * what the serialized form of a transaction (and so every transaction hash
+ * and signature) is made of. Values are converted to units where amounts
+ * are compared: each value is rounded to the nearest unit, so the same
+ * value always gives the same amount. A value on the unit grid, the closest
+ * double to some number of units, is exactly that amount; a value off the
+ * grid is off by less than a unit once rounded, so where that could decide
+ * a comparison, values are compared exactly instead (see toExact) and no
+ * value is created from the fractions of a unit.
+ */
+public final class Amount {
+    /**
+     * The number of units in one coin: amounts are exact to 10^-8 coins.
+     */
+    public static final long UNITS_PER_COIN = 100_000_000L;
+
+    // UNITS_PER_COIN as a power of ten
+    private static final int SCALE = 8;
+
+    private static final double LIMIT = 0x1p63;
+
+    private Amount() {
+    }
+
+    /**
+     * Returns coins as a number of units, rounded to the nearest unit (ties
+     * to even). Throws ArithmeticException if coins is NaN or infinite, or
+     * too large in magnitude for a long number of units.
+     */
+    public static long toUnits(double coins) {
+        final var units = Math.rint(coins * UNITS_PER_COIN);
+        if (!(Math.abs(units) < LIMIT))
+            throw new ArithmeticException("not a representable amount: " + coins);
+        return (long) units;
+    }
+
+    /**
+     * Returns true if coins is on the unit grid, that is toCoins(toUnits(coins))
+     * == coins, so it is an exact amount.
+     */
+    public static boolean isExact(double coins) {
+        return toCoins(toUnits(coins)) == coins;
+    }
+
+    /**
+     * Returns coins as an exact decimal number of coins: the amount itself for
+     * a value on the unit grid, and the exact binary value of coins
+     * otherwise. Throws ArithmeticException like toUnits.
+     */
+    public static BigDecimal toExact(double coins) {
+        final var units = toUnits(coins);
+        return toCoins(units) == coins ? BigDecimal.valueOf(units, SCALE) : new BigDecimal(coins);
+    }
+
+    /**
+     * Returns units in coins, the closest double to units / UNITS_PER_COIN.
+     * toUnits(toCoins(units)) == units for any amount below 2^51 units (about
+     * 22 million coins) in magnitude.
+     */
+    public static double toCoins(long units) {
+        return (double) units / UNITS_PER_COIN;
+    }
+
+    /**
+     * Returns sum plus coins in units, and throws ArithmeticException if
+     * coins is not representable or the result overflows.
+     */
+    public static long add(long sum, double coins) {
+        return Math.addExact(sum, toUnits(coins));
+    }
+}
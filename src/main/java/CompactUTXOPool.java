@@ -0,0 +1,311 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+
+/**
+ * A UTXOPool that keeps its entries in flat primitive arrays instead of a
+ * HashMap of objects. Every entry takes 48 bytes of array space (a 32-byte
+ * transaction hash, the output index, the value and a reference into a
+ * table of distinct addresses), with no per-entry objects for the garbage
+ * collector to trace. Entries are found by open addressing with linear
+ * probing; removal shifts later entries back, so there are no tombstones.
+ *
+ * Only 32-byte (SHA-256) transaction hashes can be stored. getTxOutput
+ * returns a new Output holding the stored value and address, so changes to
+ * an Output after it was added are not seen by the pool.
+ */
+public class CompactUTXOPool extends UTXOPool {
+    public static final int HASH_LENGTH = 32;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int WORDS = HASH_LENGTH / Long.BYTES;
+    private static final int MIN_CAPACITY = 16;
+
+    // Slot i holds hash words [4i, 4i+4), an output index, the value's bits and addressRefs[i] - 1
+    private long[] hashWords;
+    private int[] indices;
+    private long[] values;
+    // 0 marks an empty slot, otherwise the position in addresses plus one
+    private int[] addressRefs;
+    private int size;
+
+    // Distinct addresses (by identity) with the number of entries using each
+    private RSAKey[] addresses;
+    private int[] addressUses;
+    private IdentityHashMap<RSAKey, Integer> addressIds;
+    private int[] freeAddressIds;
+    private int freeAddressCount;
+    private int addressCount;
+
+    // Creates a new empty CompactUTXOPool
+    public CompactUTXOPool() {
+        this(MIN_CAPACITY);
+    }
+
+    // Creates a new empty CompactUTXOPool with room for <expectedSize> UTXOs before it has to grow
+    public CompactUTXOPool(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+        addresses = new RSAKey[MIN_CAPACITY];
+        addressUses = new int[MIN_CAPACITY];
+        addressIds = new IdentityHashMap<>();
+        freeAddressIds = new int[MIN_CAPACITY];
+    }
+
+    // Creates a new CompactUTXOPool holding the same UTXOs as <uPool>
+    public CompactUTXOPool(UTXOPool uPool) {
+        this(MIN_CAPACITY);
+        if (uPool instanceof CompactUTXOPool) {
+            CompactUTXOPool other = (CompactUTXOPool) uPool;
+            hashWords = other.hashWords.clone();
+            indices = other.indices.clone();
+            values = other.values.clone();
+            addressRefs = other.addressRefs.clone();
+            size = other.size;
+            addresses = other.addresses.clone();
+            addressUses = other.addressUses.clone();
+            addressIds = new IdentityHashMap<>(other.addressIds);
+            freeAddressIds = other.freeAddressIds.clone();
+            freeAddressCount = other.freeAddressCount;
+            addressCount = other.addressCount;
+        } else {
+            ArrayList<UTXO> all = uPool.getAllUTXO();
+            allocate(capacityFor(all.size()));
+            for (UTXO utxo : all)
+                addUTXO(utxo, uPool.getTxOutput(utxo));
+        }
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = checkHash(utxo.getTxHash());
+        int index = utxo.getIndex();
+        int slot = find(txHash, index);
+        if (slot >= 0) {
+            releaseAddress(addressRefs[slot] - 1);
+        } else {
+            if (size + 1 > indices.length / 4 * 3) {
+                resize(indices.length * 2);
+                slot = find(txHash, index);
+            }
+            slot = -slot - 1;
+            for (int w = 0; w < WORDS; w++)
+                hashWords[slot * WORDS + w] = (long) LONGS.get(txHash, w * Long.BYTES);
+            indices[slot] = index;
+            size++;
+        }
+        values[slot] = Double.doubleToRawLongBits(txOut.value);
+        addressRefs[slot] = acquireAddress(txOut.address) + 1;
+    }
+
+    /*
+     Applies <batch> like UTXOPool.apply, growing the table once up front for
+     all the UTXOs the batch creates. The hashes of those UTXOs are checked
+     before anything is spent, so a batch that cannot be stored changes
+     nothing.
+    */
+    public boolean apply(UTXOBatch batch) {
+        for (UTXO utxo : batch.getCreations().keySet())
+            checkHash(utxo.getTxHash());
+        if (!spendAll(batch.getSpends().toArray(new UTXO[0])))
+            return false;
+        int capacity = capacityFor(size + batch.getCreations().size());
+        if (capacity > indices.length)
+            resize(capacity);
+        for (Map.Entry<UTXO, Transaction.Output> creation : batch.getCreations().entrySet())
+            addUTXO(creation.getKey(), creation.getValue());
+        return true;
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        int slot = find(utxo.getTxHash(), utxo.getIndex());
+        if (slot < 0)
+            return;
+        releaseAddress(addressRefs[slot] - 1);
+        size--;
+
+        // Shift back the entries of the probe run behind the removed one
+        int mask = indices.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; addressRefs[next] != 0; next = (next + 1) & mask) {
+            int home = home(hashWords[next * WORDS], indices[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+        }
+        addressRefs[hole] = 0;
+    }
+
+    /*
+     Returns a transaction output with the value and address stored for UTXO
+     <utxo>, or null if <utxo> is not in the pool.
+    */
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return getTxOutput(ut.getTxHash(), ut.getIndex());
+    }
+
+    // Returns getTxOutput(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        int slot = find(txHash, index);
+        if (slot < 0)
+            return null;
+        return new Transaction.Output(Double.longBitsToDouble(values[slot]), addresses[addressRefs[slot] - 1]);
+    }
+
+    // Returns true if UTXO <utxo> is in the pool and false otherwise
+    public boolean contains(UTXO utxo) {
+        return contains(utxo.getTxHash(), utxo.getIndex());
+    }
+
+    // Returns contains(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public boolean contains(byte[] txHash, int index) {
+        return find(txHash, index) >= 0;
+    }
+
+    // Returns an ArrayList of all UTXOs in the pool
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> all = new ArrayList<>(size);
+        for (int slot = 0; slot < indices.length; slot++) {
+            UTXO utxo = utxoAt(slot);
+            if (utxo != null)
+                all.add(utxo);
+        }
+        return all;
+    }
+
+    /*
+     Returns a Spliterator over the slots of the table. The UTXOs are only
+     created as they are visited, since the table does not keep UTXO objects.
+    */
+    public Spliterator<UTXO> spliterator() {
+        return new SlotSpliterator(0, indices.length, slot -> utxoAt((int) slot));
+    }
+
+    // Returns the number of UTXOs in the pool
+    public int size() {
+        return size;
+    }
+
+    /*
+     Returns the slot holding (<txHash>, <index>), or -(insertion slot) - 1
+     if it is not in the pool.
+    */
+    private int find(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return -1 - indices.length;  // never stored, and never used as an insertion slot
+        long w0 = (long) LONGS.get(txHash, 0);
+        long w1 = (long) LONGS.get(txHash, 8);
+        long w2 = (long) LONGS.get(txHash, 16);
+        long w3 = (long) LONGS.get(txHash, 24);
+        int mask = indices.length - 1;
+        for (int slot = home(w0, index, mask); ; slot = (slot + 1) & mask) {
+            if (addressRefs[slot] == 0)
+                return -slot - 1;
+            int base = slot * WORDS;
+            if (indices[slot] == index && hashWords[base] == w0 && hashWords[base + 1] == w1
+                    && hashWords[base + 2] == w2 && hashWords[base + 3] == w3)
+                return slot;
+        }
+    }
+
+    // Transaction hashes are already uniformly distributed, so a few bits of one word mixed with the index suffice
+    private static int home(long firstWord, int index, int mask) {
+        long h = (firstWord ^ (index * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void move(int from, int to) {
+        System.arraycopy(hashWords, from * WORDS, hashWords, to * WORDS, WORDS);
+        indices[to] = indices[from];
+        values[to] = values[from];
+        addressRefs[to] = addressRefs[from];
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashWords = hashWords;
+        int[] oldIndices = indices;
+        long[] oldValues = values;
+        int[] oldAddressRefs = addressRefs;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int from = 0; from < oldIndices.length; from++) {
+            if (oldAddressRefs[from] == 0)
+                continue;
+            int to = home(oldHashWords[from * WORDS], oldIndices[from], mask);
+            while (addressRefs[to] != 0)
+                to = (to + 1) & mask;
+            System.arraycopy(oldHashWords, from * WORDS, hashWords, to * WORDS, WORDS);
+            indices[to] = oldIndices[from];
+            values[to] = oldValues[from];
+            addressRefs[to] = oldAddressRefs[from];
+        }
+    }
+
+    // Returns the UTXO stored in <slot>, or null if it is empty
+    private UTXO utxoAt(int slot) {
+        if (addressRefs[slot] == 0)
+            return null;
+        byte[] txHash = new byte[HASH_LENGTH];
+        for (int w = 0; w < WORDS; w++)
+            LONGS.set(txHash, w * Long.BYTES, hashWords[slot * WORDS + w]);
+        return UTXO.wrap(txHash, indices[slot]);
+    }
+
+    private void allocate(int capacity) {
+        hashWords = new long[capacity * WORDS];
+        indices = new int[capacity];
+        values = new long[capacity];
+        addressRefs = new int[capacity];
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 4 * 3 < expectedSize)
+            capacity *= 2;
+        return capacity;
+    }
+
+    private int acquireAddress(RSAKey address) {
+        Integer known = addressIds.get(address);
+        int id;
+        if (known != null) {
+            id = known;
+        } else {
+            if (freeAddressCount > 0) {
+                id = freeAddressIds[--freeAddressCount];
+            } else {
+                if (addressCount == addresses.length) {
+                    addresses = Arrays.copyOf(addresses, addressCount * 2);
+                    addressUses = Arrays.copyOf(addressUses, addressCount * 2);
+                }
+                id = addressCount++;
+            }
+            addresses[id] = address;
+            addressIds.put(address, id);
+        }
+        addressUses[id]++;
+        return id;
+    }
+
+    private void releaseAddress(int id) {
+        if (--addressUses[id] > 0)
+            return;
+        addressIds.remove(addresses[id]);
+        addresses[id] = null;
+        if (freeAddressCount == freeAddressIds.length)
+            freeAddressIds = Arrays.copyOf(freeAddressIds, freeAddressCount * 2);
+        freeAddressIds[freeAddressCount++] = id;
+    }
+
+    private static byte[] checkHash(byte[] txHash) {
+        if (txHash.length != HASH_LENGTH)
+            throw new IllegalArgumentException("CompactUTXOPool only stores " + HASH_LENGTH + "-byte transaction hashes");
+        return txHash;
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * A thread-safe UTXOPool that can be shared by several TxHandlers running on
+ * different threads. The UTXOs are spread over a fixed number of stripes,
+ * each a HashMap guarded by its own lock, so threads working on different
+ * UTXOs rarely wait for each other.
+ *
+ * spendAll and apply are atomic: they lock the stripes of all UTXOs
+ * involved, in stripe order so concurrent calls cannot deadlock, and make
+ * either all of their changes or none. Two handlers can therefore never both spend the same UTXO.
+ * getAllUTXO locks every stripe and returns a consistent snapshot; stream
+ * and spliterator copy one stripe at a time instead.
+ */
+public class ConcurrentUTXOPool extends UTXOPool {
+    private final HashMap<UTXO, Transaction.Output>[] stripes;
+    private final ReentrantLock[] locks;
+
+    private static final UTXO[] NO_UTXOS = new UTXO[0];
+    private static final Transaction.Output[] NO_OUTPUTS = new Transaction.Output[0];
+
+    // Creates a new empty ConcurrentUTXOPool with a stripe count suited to the number of processors
+    public ConcurrentUTXOPool() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    // Creates a new empty ConcurrentUTXOPool with at least <stripeCount> stripes
+    @SuppressWarnings("unchecked")
+    public ConcurrentUTXOPool(int stripeCount) {
+        int count = 1;
+        while (count < stripeCount)
+            count *= 2;
+        stripes = (HashMap<UTXO, Transaction.Output>[]) new HashMap<?, ?>[count];
+        locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new HashMap<>();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Creates a new ConcurrentUTXOPool holding the same UTXOs as <uPool>
+    public ConcurrentUTXOPool(UTXOPool uPool) {
+        this();
+        for (UTXO utxo : uPool.getAllUTXO())
+            stripes[stripe(utxo)].put(utxo, uPool.getTxOutput(utxo));
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        int stripe = stripe(utxo);
+        locks[stripe].lock();
+        try {
+            stripes[stripe].put(utxo, txOut);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        int stripe = stripe(utxo);
+        locks[stripe].lock();
+        try {
+            stripes[stripe].remove(utxo);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /*
+     Returns the transaction output corresponding to UTXO <utxo>, or null if
+     <utxo> is not in the pool.
+    */
+    public Transaction.Output getTxOutput(UTXO ut) {
+        int stripe = stripe(ut);
+        locks[stripe].lock();
+        try {
+            return stripes[stripe].get(ut);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    // Returns true if UTXO <utxo> is in the pool and false otherwise
+    public boolean contains(UTXO utxo) {
+        int stripe = stripe(utxo);
+        locks[stripe].lock();
+        try {
+            return stripes[stripe].containsKey(utxo);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    // Returns getTxOutput(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        int stripe = stripe(key.hashCode());
+        locks[stripe].lock();
+        try {
+            return stripes[stripe].get(key);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    // Returns contains(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public boolean contains(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        int stripe = stripe(key.hashCode());
+        locks[stripe].lock();
+        try {
+            return stripes[stripe].containsKey(key);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    // Returns an ArrayList of all UTXOs in the pool
+    public ArrayList<UTXO> getAllUTXO() {
+        for (ReentrantLock lock : locks)
+            lock.lock();
+        try {
+            ArrayList<UTXO> all = new ArrayList<>();
+            for (HashMap<UTXO, Transaction.Output> stripe : stripes)
+                all.addAll(stripe.keySet());
+            return all;
+        } finally {
+            for (ReentrantLock lock : locks)
+                lock.unlock();
+        }
+    }
+
+    /*
+     Returns a Spliterator that visits the stripes one after another and
+     splits by stripe. Each stripe is copied under its lock when it is
+     reached, so the pool may be changed concurrently: every UTXO that stays
+     in the pool throughout is visited exactly once, and the copy in memory is
+     never larger than one stripe.
+    */
+    public Spliterator<UTXO> spliterator() {
+        return IntStream.range(0, stripes.length)
+                .mapToObj(this::snapshot)
+                .flatMap(Arrays::stream)
+                .spliterator();
+    }
+
+    /*
+     Atomically removes all of <utxos> and returns true if every one of them
+     is in the pool and none appears twice; otherwise changes nothing and
+     returns false.
+    */
+    public boolean spendAll(UTXO[] utxos) {
+        return update(utxos, NO_UTXOS, NO_OUTPUTS);
+    }
+
+    /*
+     Atomically applies <batch>: other threads see the pool either before or
+     after the whole batch.
+    */
+    public boolean apply(UTXOBatch batch) {
+        Map<UTXO, Transaction.Output> creations = batch.getCreations();
+        UTXO[] created = new UTXO[creations.size()];
+        Transaction.Output[] outputs = new Transaction.Output[created.length];
+        int next = 0;
+        for (Map.Entry<UTXO, Transaction.Output> creation : creations.entrySet()) {
+            created[next] = creation.getKey();
+            outputs[next++] = creation.getValue();
+        }
+        return update(batch.getSpends().toArray(NO_UTXOS), created, outputs);
+    }
+
+    // Returns the number of stripes the UTXOs are spread over
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /*
+     Removes <spent> and adds <created> with <outputs> under the locks of all
+     stripes involved, taken in stripe order so concurrent calls cannot
+     deadlock, if every spent UTXO is in the pool and none appears twice.
+    */
+    private boolean update(UTXO[] spent, UTXO[] created, Transaction.Output[] outputs) {
+        int[] stripeOf = new int[spent.length + created.length];
+        for (int i = 0; i < spent.length; i++)
+            stripeOf[i] = stripe(spent[i]);
+        for (int i = 0; i < created.length; i++)
+            stripeOf[spent.length + i] = stripe(created[i]);
+        // Sorting the stripes gives the lock order and puts repeats next to
+        // each other, so each stripe is locked once however large the batch
+        int[] order = stripeOf.clone();
+        Arrays.sort(order);
+
+        int distinct = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (distinct == 0 || order[i] != order[distinct - 1])
+                order[distinct++] = order[i];
+        }
+
+        int locked = 0;
+        try {
+            for (; locked < distinct; locked++)
+                locks[order[locked]].lock();
+
+            for (int i = 0; i < spent.length; i++) {
+                if (!stripes[stripeOf[i]].containsKey(spent[i]))
+                    return false;
+            }
+            // A batch may spend a whole epoch's inputs, so repeats are found by
+            // sorting a copy rather than by comparing every pair
+            UTXO[] sorted = spent.clone();
+            Arrays.sort(sorted, UTXO.HASH_ORDER);
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i].equals(sorted[i - 1]))
+                    return false;
+            }
+            for (int i = 0; i < spent.length; i++)
+                stripes[stripeOf[i]].remove(spent[i]);
+            for (int i = 0; i < created.length; i++)
+                stripes[stripeOf[spent.length + i]].put(created[i], outputs[i]);
+            return true;
+        } finally {
+            for (int i = 0; i < locked; i++)
+                locks[order[i]].unlock();
+        }
+    }
+
+    // Returns the UTXOs of stripe <stripe> at this moment
+    private UTXO[] snapshot(int stripe) {
+        locks[stripe].lock();
+        try {
+            return stripes[stripe].keySet().toArray(NO_UTXOS);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    private int stripe(UTXO utxo) {
+        return stripe(utxo.hashCode());
+    }
+
+    // Returns the stripe of the UTXOs with hash code <h>
+    private int stripe(int h) {
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+}
@@ -0,0 +1,468 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Handles a stream of proposed transactions with the rules of TxHandler,
+ * without ever holding the whole stream in memory. The work is split into
+ * stages connected by bounded queues:
+ *
+ *   DECODE  pulls transactions from the source on a thread of its own, so
+ *           reading (and decoding) a file overlaps with everything else
+ *   HASH    recomputes the hash of every transaction, on worker threads
+ *   VERIFY  runs the checks that need no pool (TxHandler.precheck), looks
+ *           up the owner of every input and checks the signatures, on
+ *           worker threads
+ *   COMMIT  runs the checks that need the pool (TxHandler.isValidTx with
+ *           a precheck) and applies the accepted transactions, on the
+ *           thread calling run
+ *
+ * A full queue blocks the stage feeding it, so a slow stage holds the stages
+ * before it back instead of letting transactions pile up: at most about
+ * three queues' worth of transactions are in flight.
+ *
+ * Transactions are committed in stream order. Unlike handleTxs, which sees
+ * a whole epoch at once, a transaction spending an output of one that comes
+ * later in the stream is rejected. Every commitInterval transactions, the
+ * accepted ones are applied to the pool as one UTXOBatch and the pool is
+ * synced. Only then are they passed on as accepted, so the consumer never
+ * hears of a transaction that did not reach the pool.
+ *
+ * The owner of an input is looked up, when its signature is verified, among
+ * the outputs of transactions still in the pipeline or else in the pool. If
+ * it was not found, or is not the owner the commit stage finds, the
+ * signatures are checked again there, as handleTxs does after verifying an
+ * epoch in parallel. The pool is only used under one lock, so any UTXOPool
+ * works, but nothing else may change it while run is running.
+ */
+public class EpochPipeline {
+    /**
+     * The stages of the pipeline, in order.
+     */
+    public enum Stage {
+        DECODE, HASH, VERIFY, COMMIT
+    }
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_COMMIT_INTERVAL = 4096;
+    private static final long POLL_MILLIS = 10;
+
+    // Marks the end of the stream; every worker passes one on
+    private static final Item END = new Item(-1, null);
+
+    private final UTXOPool pool;
+    private final SignatureVerifier verifier;
+    private final TxHandler handler;
+    private final int workers;
+    private final int queueCapacity;
+    private final int commitInterval;
+    private final ReentrantLock poolLock = new ReentrantLock();
+    private volatile Stats stats;
+
+    /**
+     * Creates a pipeline over utxoPool with a serial signature verifier per
+     * worker, one hash and one verify worker per processor, queues of 1024
+     * transactions and a commit every 4096 transactions.
+     */
+    public EpochPipeline(UTXOPool utxoPool) {
+        this(utxoPool, new SignatureVerifier(), Runtime.getRuntime().availableProcessors(),
+                DEFAULT_QUEUE_CAPACITY, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Creates a pipeline over utxoPool that checks signatures with verifier
+     * (shared by all verify workers), runs workers worker threads in each
+     * of the HASH and VERIFY stages, holds at most queueCapacity
+     * transactions between two stages and applies accepted transactions to
+     * the pool every commitInterval transactions.
+     */
+    public EpochPipeline(UTXOPool utxoPool, SignatureVerifier verifier, int workers, int queueCapacity, int commitInterval) {
+        if (workers <= 0 || queueCapacity <= 0 || commitInterval <= 0)
+            throw new IllegalArgumentException("workers, queueCapacity and commitInterval must be positive");
+        pool = utxoPool;
+        this.verifier = verifier;
+        handler = new TxHandler(utxoPool, verifier);
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Handles every transaction of source, passing the accepted ones to
+     * accepted in stream order on the calling thread, once the window
+     * holding them is applied to the pool and synced, and returns the
+     * statistics of the run. If the source, the consumer or a stage throws,
+     * the pipeline stops and run throws the same exception; transactions
+     * committed before that stay in the pool. A pipeline runs one stream at
+     * a time.
+     */
+    public Stats run(Iterator<Transaction> source, Consumer<Transaction> accepted) {
+        final var run = new Run(source, accepted);
+        stats = run.stats;
+        return run.execute();
+    }
+
+    /**
+     * Returns the statistics of the current run, updated as it goes, or of
+     * the last one; null before the first run.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * How many transactions each stage handled and how long it was busy
+     * doing so, not counting the time spent waiting on its queues.
+     */
+    public static class Stats {
+        private final EnumMap<Stage, Integer> threads = new EnumMap<>(Stage.class);
+        private final EnumMap<Stage, LongAdder> transactions = new EnumMap<>(Stage.class);
+        private final EnumMap<Stage, LongAdder> busyNanos = new EnumMap<>(Stage.class);
+        private final LongAdder accepted = new LongAdder();
+        private final long start = System.nanoTime();
+        private volatile long elapsedNanos = -1;
+
+        Stats(int workers) {
+            for (final var stage : Stage.values()) {
+                threads.put(stage, stage == Stage.HASH || stage == Stage.VERIFY ? workers : 1);
+                transactions.put(stage, new LongAdder());
+                busyNanos.put(stage, new LongAdder());
+            }
+        }
+
+        public long getTransactions(Stage stage) {
+            return transactions.get(stage).sum();
+        }
+
+        public long getBusyNanos(Stage stage) {
+            return busyNanos.get(stage).sum();
+        }
+
+        public int getThreads(Stage stage) {
+            return threads.get(stage);
+        }
+
+        /**
+         * Returns the transactions per second stage handles with all its
+         * threads busy: what the pipeline would reach if the other stages
+         * kept up. The stage with the lowest throughput is the bottleneck.
+         */
+        public double getThroughput(Stage stage) {
+            final var busy = getBusyNanos(stage);
+            return busy == 0 ? 0 : getTransactions(stage) * 1e9 * getThreads(stage) / busy;
+        }
+
+        public long getAccepted() {
+            return accepted.sum();
+        }
+
+        /**
+         * Returns the time since the run started, or how long it took once it
+         * is over.
+         */
+        public long getElapsedNanos() {
+            final var elapsed = elapsedNanos;
+            return elapsed >= 0 ? elapsed : System.nanoTime() - start;
+        }
+
+        private void record(Stage stage, long begin) {
+            busyNanos.get(stage).add(System.nanoTime() - begin);
+            transactions.get(stage).increment();
+        }
+
+        private void finish() {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * A transaction on its way through the stages, numbered in stream order.
+     * Handing it from one queue to the next publishes what a stage set.
+     */
+    private static final class Item {
+        private final long sequence;
+        private final Transaction tx;
+        private TxHandler.Precheck precheck;
+        private TxHandler.PreverifiedSignatures preverified;
+
+        private Item(long sequence, Transaction tx) {
+            this.sequence = sequence;
+            this.tx = tx;
+        }
+    }
+
+    private interface Work {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * The threads, queues and state of one call to run. The COMMIT stage's
+     * state is only touched by the calling thread.
+     */
+    private final class Run {
+        private final Iterator<Transaction> source;
+        private final Consumer<Transaction> accepted;
+        private final Stats stats = new Stats(workers);
+        private final BlockingQueue<Item> hashQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> verifyQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> commitQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final ArrayList<Thread> threads = new ArrayList<>();
+
+        // Outputs of the transactions that were hashed but are not yet in the pool or rejected
+        private final ConcurrentHashMap<UTXO, Transaction.Output> pendingOutputs = new ConcurrentHashMap<>();
+
+        private UTXOPool epoch;
+        private UTXOBatch batch;
+        private final ArrayList<Transaction> decided = new ArrayList<>();
+        // The accepted transactions of the window, passed on once it is applied
+        private final ArrayList<Transaction> acceptedInWindow = new ArrayList<>();
+
+        private Run(Iterator<Transaction> source, Consumer<Transaction> accepted) {
+            this.source = source;
+            this.accepted = accepted;
+        }
+
+        private Stats execute() {
+            // All threads exist before any starts, so a failing one can stop all others
+            addThread(Stage.DECODE, 0, this::decode);
+            for (var i = 0; i < workers; i++) {
+                addThread(Stage.HASH, i, this::hash);
+                addThread(Stage.VERIFY, i, this::verify);
+            }
+            for (final var thread : threads)
+                thread.start();
+
+            try {
+                commit();
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                joinThreads();
+                stats.finish();
+            }
+
+            final var cause = failure.get();
+            if (cause == null)
+                return stats;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+
+        private void decode() throws InterruptedException {
+            var sequence = 0L;
+            while (true) {
+                final var begin = System.nanoTime();
+                if (!source.hasNext())
+                    break;
+                final var tx = source.next();
+                stats.record(Stage.DECODE, begin);
+                hashQueue.put(new Item(sequence++, tx));
+            }
+            for (var i = 0; i < workers; i++)
+                hashQueue.put(END);
+        }
+
+        // Outputs are keyed by the recomputed hash, so they are found under what the transaction really contains
+        private void hash() throws InterruptedException {
+            for (var item = hashQueue.take(); item != END; item = hashQueue.take()) {
+                final var begin = System.nanoTime();
+                final var tx = item.tx;
+                tx.computeHash();
+                final var txHash = tx.getHash();
+                if (txHash != null) {
+                    for (var index = 0; index < tx.numOutputs(); index++)
+                        pendingOutputs.put(UTXO.wrap(txHash, index), tx.getOutput(index));
+                }
+                stats.record(Stage.HASH, begin);
+                verifyQueue.put(item);
+            }
+            verifyQueue.put(END);
+        }
+
+        private void verify() throws InterruptedException {
+            for (var item = verifyQueue.take(); item != END; item = verifyQueue.take()) {
+                final var begin = System.nanoTime();
+                item.precheck = TxHandler.precheck(item.tx);
+                // A transaction that fails its precheck is rejected without looking at its signatures
+                final var addresses = item.precheck.isValid() ? resolveAddresses(item.tx) : null;
+                if (addresses != null)
+                    item.preverified = new TxHandler.PreverifiedSignatures(addresses, verifier.verifyAll(item.tx, addresses));
+                stats.record(Stage.VERIFY, begin);
+                commitQueue.put(item);
+            }
+            commitQueue.put(END);
+        }
+
+        /*
+         Returns the owners of the inputs of tx, or null if one is unknown.
+         Outputs leave pendingOutputs only once they are in the pool, so
+         looking there first and in the pool second never misses one that is
+         on its way.
+        */
+        private RSAKey[] resolveAddresses(Transaction tx) {
+            final var addresses = new RSAKey[tx.numInputs()];
+            for (var i = 0; i < addresses.length; i++) {
+                final var input = tx.getInput(i);
+                var output = pendingOutputs.get(UTXOKey.probe(input.prevTxHash, input.outputIndex));
+                if (output == null) {
+                    poolLock.lock();
+                    try {
+                        output = pool.getTxOutput(input.prevTxHash, input.outputIndex);
+                    } finally {
+                        poolLock.unlock();
+                    }
+                }
+                if (output == null)
+                    return null;
+                addresses[i] = output.address;
+            }
+            return addresses;
+        }
+
+        /*
+         Takes the verified transactions as they come, and commits them in
+         stream order: ones that overtook an earlier transaction wait in
+         reordered, which never holds more than the pipeline has in flight.
+        */
+        private void commit() {
+            startWindow();
+            final var reordered = new HashMap<Long, Item>();
+            var next = 0L;
+            var ends = 0;
+            while (ends < workers) {
+                final var item = take();
+                if (item == null)
+                    return;
+                if (item == END) {
+                    ends++;
+                    continue;
+                }
+                reordered.put(item.sequence, item);
+                for (var ready = reordered.remove(next); ready != null; ready = reordered.remove(next)) {
+                    next++;
+                    final var begin = System.nanoTime();
+                    final boolean valid;
+                    poolLock.lock();
+                    try {
+                        valid = handler.applyIfValid(epoch, ready.precheck, ready.preverified, batch);
+                    } finally {
+                        poolLock.unlock();
+                    }
+                    decided.add(ready.tx);
+                    if (valid)
+                        acceptedInWindow.add(ready.tx);
+                    stats.record(Stage.COMMIT, begin);
+                    if (decided.size() == commitInterval)
+                        commitWindow();
+                }
+            }
+            commitWindow();
+        }
+
+        private void startWindow() {
+            poolLock.lock();
+            try {
+                epoch = pool.fork();
+            } finally {
+                poolLock.unlock();
+            }
+            batch = new UTXOBatch();
+        }
+
+        /*
+         Applies the accepted transactions of the window and syncs the pool,
+         passes them on, then forgets the outputs of all its transactions
+        */
+        private void commitWindow() {
+            poolLock.lock();
+            try {
+                if (!pool.apply(batch))
+                    throw new IllegalStateException("The pool was changed while the pipeline was running");
+                pool.sync();
+            } finally {
+                poolLock.unlock();
+            }
+            for (final var tx : acceptedInWindow) {
+                stats.accepted.increment();
+                accepted.accept(tx);
+            }
+            acceptedInWindow.clear();
+            for (final var tx : decided) {
+                final var txHash = tx.getHash();
+                if (txHash == null)
+                    continue;
+                for (var index = 0; index < tx.numOutputs(); index++)
+                    pendingOutputs.remove(UTXOKey.probe(txHash, index));
+            }
+            decided.clear();
+            startWindow();
+        }
+
+        // Returns the next item of the COMMIT queue, or null if another stage failed
+        private Item take() {
+            try {
+                while (failure.get() == null) {
+                    final var item = commitQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (item != null)
+                        return item;
+                }
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while handling transactions");
+            }
+        }
+
+        private void addThread(Stage stage, int number, Work work) {
+            final var thread = new Thread(() -> {
+                try {
+                    work.run();
+                } catch (InterruptedException e) {
+                    fail(new CancellationException("Interrupted while handling transactions"));
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }, "EpochPipeline-" + stage.name().toLowerCase() + "-" + number);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        // Records the first failure and stops every stage; later ones are just consequences of stopping
+        private void fail(Throwable cause) {
+            if (!failure.compareAndSet(null, cause))
+                return;
+            for (final var thread : threads)
+                thread.interrupt();
+        }
+
+        private void joinThreads() {
+            var interrupted = false;
+            for (final var thread : threads) {
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        fail(new CancellationException("Interrupted while handling transactions"));
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
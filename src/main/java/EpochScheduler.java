@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Decides in which order TxHandler applies the transactions of an epoch.
+ *
+ * The transactions of an epoch form a spend graph: there is an edge from
+ * transaction A to transaction B when an input of B spends an output of A
+ * (Input.prevTxHash equals A.getHash()). The schedule is a topological order
+ * of that graph, so a transaction proposed before its parent is still
+ * applied after it. Among the transactions that are ready at the same time,
+ * the one proposed first goes first. That makes the winner of a double spend
+ * deterministic: it is the conflicting transaction that becomes ready first,
+ * with ties broken by proposal order.
+ */
+public class EpochScheduler {
+    private EpochScheduler() {
+    }
+
+    /**
+     * Returns the indices of all transactions in proposedTransactions in the
+     * order in which they should be applied. Transactions that are part of a
+     * spend cycle (which can only happen with forged hashes) cannot be
+     * ordered; they are appended in proposal order.
+     */
+    public static int[] schedule(Transaction[] proposedTransactions) {
+        final var count = proposedTransactions.length;
+        final var indicesByHash = new HashMap<ByteBuffer, ArrayList<Integer>>(count * 2);
+        for (var i = 0; i < count; i++) {
+            final var txHash = proposedTransactions[i].getHash();
+            if (txHash != null)
+                indicesByHash.computeIfAbsent(ByteBuffer.wrap(txHash), key -> new ArrayList<>(1)).add(i);
+        }
+
+        // children[i] lists the transactions spending outputs of transaction i
+        final var children = new ArrayList<ArrayList<Integer>>(count);
+        final var unresolvedParents = new int[count];
+        for (var i = 0; i < count; i++)
+            children.add(null);
+        for (var i = 0; i < count; i++) {
+            for (final var input : proposedTransactions[i].getInputs()) {
+                if (input.prevTxHash == null)
+                    continue;
+                final var parents = indicesByHash.get(ByteBuffer.wrap(input.prevTxHash));
+                if (parents == null)
+                    continue;
+                for (final int parent : parents) {
+                    if (parent == i)
+                        continue;
+                    if (children.get(parent) == null)
+                        children.set(parent, new ArrayList<>(2));
+                    children.get(parent).add(i);
+                    unresolvedParents[i]++;
+                }
+            }
+        }
+
+        final var ready = new PriorityQueue<Integer>();
+        for (var i = 0; i < count; i++) {
+            if (unresolvedParents[i] == 0)
+                ready.add(i);
+        }
+
+        final var order = new int[count];
+        final var scheduled = new boolean[count];
+        var position = 0;
+        while (!ready.isEmpty()) {
+            final int next = ready.poll();
+            order[position++] = next;
+            scheduled[next] = true;
+            if (children.get(next) == null)
+                continue;
+            for (final int child : children.get(next)) {
+                if (--unresolvedParents[child] == 0)
+                    ready.add(child);
+            }
+        }
+
+        for (var i = 0; i < count && position < count; i++) {
+            if (!scheduled[i])
+                order[position++] = i;
+        }
+        return order;
+    }
+}
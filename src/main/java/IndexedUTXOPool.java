@@ -0,0 +1,139 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A UTXOPool with two secondary indexes, kept up to date by addUTXO and
+ * removeUTXO: the UTXOs owned by each address, and the unspent output
+ * indices of each transaction. getUTXOsOf and getUnspentIndices look up the
+ * index instead of scanning the pool, so they cost the same whatever the
+ * size of the pool. Every addition and removal pays for one extra lookup in
+ * each index.
+ *
+ * Like UTXOPool, addresses are matched by exponent and modulus, so a query
+ * finds the UTXOs of an address whichever RSAKey object their outputs use.
+ */
+public class IndexedUTXOPool extends UTXOPool {
+    // The UTXOs owned by each address
+    private final HashMap<AddressKey, HashSet<UTXO>> byAddress = new HashMap<>();
+
+    // The unspent output indices of each transaction, keyed by its hash
+    private final HashMap<ByteBuffer, Indices> byTransaction = new HashMap<>();
+
+    // Creates a new empty IndexedUTXOPool
+    public IndexedUTXOPool() {
+        super();
+    }
+
+    // Creates a new IndexedUTXOPool that is a copy of <uPool>, with indexes built from scratch
+    public IndexedUTXOPool(UTXOPool uPool) {
+        super(uPool);
+        for (UTXO utxo : super.getAllUTXO())
+            index(utxo, super.getTxOutput(utxo));
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        Transaction.Output replaced = super.getTxOutput(utxo);
+        if (replaced != null)
+            unindex(utxo, replaced);
+        super.addUTXO(utxo, txOut);
+        index(utxo, txOut);
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        Transaction.Output removed = super.getTxOutput(utxo);
+        if (removed == null)
+            return;
+        super.removeUTXO(utxo);
+        unindex(utxo, removed);
+    }
+
+    // Returns the UTXOs in the pool owned by <address>, from the address index
+    public ArrayList<UTXO> getUTXOsOf(RSAKey address) {
+        HashSet<UTXO> owned = byAddress.get(new AddressKey(address));
+        return owned == null ? new ArrayList<>() : new ArrayList<>(owned);
+    }
+
+    // Returns the indices of the unspent outputs of the transaction with hash <txHash> in ascending order, from the transaction index
+    public int[] getUnspentIndices(byte[] txHash) {
+        Indices indices = byTransaction.get(ByteBuffer.wrap(txHash));
+        return indices == null ? new int[0] : Arrays.copyOf(indices.values, indices.count);
+    }
+
+    private void index(UTXO utxo, Transaction.Output txOut) {
+        byAddress.computeIfAbsent(new AddressKey(txOut.address), key -> new HashSet<>()).add(utxo);
+        byTransaction.computeIfAbsent(ByteBuffer.wrap(utxo.getTxHash()), key -> new Indices()).add(utxo.getIndex());
+    }
+
+    private void unindex(UTXO utxo, Transaction.Output txOut) {
+        AddressKey address = new AddressKey(txOut.address);
+        HashSet<UTXO> owned = byAddress.get(address);
+        owned.remove(utxo);
+        if (owned.isEmpty())
+            byAddress.remove(address);
+
+        ByteBuffer txHash = ByteBuffer.wrap(utxo.getTxHash());
+        Indices indices = byTransaction.get(txHash);
+        indices.remove(utxo.getIndex());
+        if (indices.count == 0)
+            byTransaction.remove(txHash);
+    }
+
+    /*
+     An address as a map key: RSAKey has no equals, so two keys with the
+     same exponent and modulus are told apart by the fields themselves.
+    */
+    private static final class AddressKey {
+        private final BigInteger exponent;
+        private final BigInteger modulus;
+        private final int hash;
+
+        AddressKey(RSAKey address) {
+            exponent = address.getExponent();
+            modulus = address.getModulus();
+            hash = 31 * modulus.hashCode() + exponent.hashCode();
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof AddressKey))
+                return false;
+            AddressKey key = (AddressKey) other;
+            return hash == key.hash && modulus.equals(key.modulus) && exponent.equals(key.exponent);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // A sorted set of output indices; transactions have few outputs, so a sorted array is enough
+    private static final class Indices {
+        private int[] values = new int[2];
+        private int count;
+
+        void add(int index) {
+            int position = Arrays.binarySearch(values, 0, count, index);
+            if (position >= 0)
+                return;
+            position = -position - 1;
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            System.arraycopy(values, position, values, position + 1, count - position);
+            values[position] = index;
+            count++;
+        }
+
+        void remove(int index) {
+            int position = Arrays.binarySearch(values, 0, count, index);
+            if (position < 0)
+                return;
+            System.arraycopy(values, position + 1, values, position, count - position - 1);
+            count--;
+        }
+    }
+}
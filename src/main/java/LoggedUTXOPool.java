@@ -0,0 +1,433 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A UTXOPool kept on the heap like UTXOPool, made durable by a write-ahead
+ * log of its changes and periodic checkpoints of the whole pool. Lookups and
+ * changes run at the speed of UTXOPool; only sync() touches the disk.
+ *
+ * The directory holds two files:
+ *   utxos.log         the changes of each sync since the last checkpoint, one
+ *                     record per sync
+ *   checkpoint.dat    every UTXO of the pool as of some sync, grouped by
+ *                     transaction, with each address stored once
+ *
+ * Every addUTXO and removeUTXO is encoded into a buffer as it happens. sync(),
+ * which TxHandler calls once per epoch, appends the buffer to the log as one
+ * record with a single write and forces it once, however many UTXOs the
+ * epoch changed. Records are numbered and carry a CRC32, so a record torn by
+ * a crash is recognized and dropped: the pool reopens with the UTXOs of the
+ * last completed sync.
+ *
+ * Every checkpointInterval syncs, the pool is written to a new checkpoint,
+ * which is forced and renamed over the old one, and the log is emptied only
+ * once the directory is forced too, so the rename is durable first.
+ * Opening a pool loads the checkpoint and replays at most checkpointInterval
+ * records on top of it, so restarting takes time in proportion to the size
+ * of the pool and never to the number of epochs ever handled.
+ *
+ * Like UTXOPool, it is not safe to use from several threads at once.
+ * Checkpoints are limited to 2 GB.
+ */
+public class LoggedUTXOPool extends UTXOPool implements Closeable {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    private static final String LOG_FILE = "utxos.log";
+    private static final String CHECKPOINT_FILE = "checkpoint.dat";
+
+    private static final long LOG_MAGIC = 0x5554584F57414C31L;         // "UTXOWAL1"
+    private static final long CHECKPOINT_MAGIC = 0x5554584F43505431L;  // "UTXOCPT1"
+
+    // Record header: length of the body, CRC32 of the sequence number and the body, sequence number
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final int checkpointInterval;
+    private final FileChannel log;
+    private long logLength;
+
+    // Sequence number of the last record written, and of the last one in the checkpoint
+    private long sequence;
+    private long checkpointSequence;
+
+    // The record being built: header space followed by the changes since the last sync
+    private ByteBuffer pending = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /*
+     Opens the pool stored in <directory> with a checkpoint every
+     DEFAULT_CHECKPOINT_INTERVAL syncs, creating the directory and an empty
+     pool if there is none.
+    */
+    public LoggedUTXOPool(Path directory) throws IOException {
+        this(directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /*
+     Opens the pool stored in <directory>, creating the directory and an
+     empty pool if there is none, and writes a checkpoint every
+     <checkpointInterval> syncs. The checkpoint is loaded and the log
+     replayed on top of it; a torn record at the end of the log is dropped.
+    */
+    public LoggedUTXOPool(Path directory, int checkpointInterval) throws IOException {
+        if (checkpointInterval <= 0)
+            throw new IllegalArgumentException("checkpointInterval must be positive");
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE + ".tmp"));
+
+        HashMap<ByteBuffer, RSAKey> addresses = new HashMap<>();
+        Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointPath))
+            loadCheckpoint(checkpointPath, addresses);
+        sequence = checkpointSequence;
+
+        log = FileChannel.open(directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replay(addresses);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        pending.position(RECORD_HEADER_SIZE);
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        super.addUTXO(utxo, txOut);
+        byte[] txHash = utxo.getTxHash();
+        reserve(1 + TransactionCodec.bytesSize(txHash) + Integer.BYTES + Long.BYTES + TransactionCodec.addressSize(txOut));
+        pending.put(ADD);
+        TransactionCodec.putBytes(pending, txHash);
+        pending.putInt(utxo.getIndex());
+        pending.putLong(Double.doubleToRawLongBits(txOut.value));
+        TransactionCodec.putAddress(pending, txOut);
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        if (!contains(utxo))
+            return;
+        super.removeUTXO(utxo);
+        byte[] txHash = utxo.getTxHash();
+        reserve(1 + TransactionCodec.bytesSize(txHash) + Integer.BYTES);
+        pending.put(REMOVE);
+        TransactionCodec.putBytes(pending, txHash);
+        pending.putInt(utxo.getIndex());
+    }
+
+    /*
+     Makes all changes since the last sync durable: appends them to the log
+     as one record and forces it. Writes a checkpoint instead of returning
+     when checkpointInterval records have piled up since the last one.
+    */
+    public void sync() {
+        try {
+            if (!writeRecord())
+                return;
+            if (sequence - checkpointSequence >= checkpointInterval)
+                writeCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     Syncs the pool, writes all of it to a new checkpoint and empties the
+     log, so reopening the pool replays nothing.
+    */
+    public void checkpoint() {
+        try {
+            writeRecord();
+            writeCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Syncs the pool and closes its log
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            log.close();
+        }
+    }
+
+    // Returns the directory this pool is stored in
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Returns the number of syncs that changed the pool since it was created
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Returns the number of records in the log, which reopening the pool replays
+    public long getLogRecords() {
+        return sequence - checkpointSequence;
+    }
+
+    // Makes room for <size> more bytes in the pending record
+    private void reserve(int size) {
+        if (pending.remaining() >= size)
+            return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+
+    // Appends the pending record to the log and forces it; returns false if there was nothing to write
+    private boolean writeRecord() throws IOException {
+        int bodyLength = pending.position() - RECORD_HEADER_SIZE;
+        if (bodyLength == 0)
+            return false;
+        long recordSequence = sequence + 1;
+        pending.putLong(Integer.BYTES * 2, recordSequence);
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), Integer.BYTES * 2, Long.BYTES + bodyLength);
+        pending.putInt(0, bodyLength);
+        pending.putInt(Integer.BYTES, (int) crc.getValue());
+
+        pending.flip();
+        long position = logLength;
+        while (pending.hasRemaining())
+            position += log.write(pending, position);
+        log.force(false);
+
+        logLength = position;
+        sequence = recordSequence;
+        if (pending.capacity() > WRITE_BUFFER_SIZE * 16)
+            pending = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        pending.clear().position(RECORD_HEADER_SIZE);
+        return true;
+    }
+
+    /*
+     Writes the pool as of the last record to a new checkpoint, forces it and
+     renames it over the old one, then empties the log. A crash before the
+     rename leaves the old checkpoint and the whole log; a crash after it
+     leaves records the new checkpoint already holds, which replay skips.
+
+     Checkpoint: magic, sequence number of the last record it holds, the
+     distinct addresses, then the UTXOs grouped by transaction hash (the
+     hash, the number of its UTXOs, and for each the output index, the value
+     and the number of its address), and a CRC32 of everything before it.
+    */
+    private void writeCheckpoint() throws IOException {
+        ArrayList<UTXO> utxos = getAllUTXO();
+        utxos.sort(UTXO.HASH_ORDER);
+
+        HashMap<ByteBuffer, Integer> addressNumbers = new HashMap<>();
+        ArrayList<Transaction.Output> addressOutputs = new ArrayList<>();
+        int[] addressOf = new int[utxos.size()];
+        int transactions = 0;
+        for (int i = 0; i < utxos.size(); i++) {
+            Transaction.Output output = getTxOutput(utxos.get(i));
+            Integer number = addressNumbers.putIfAbsent(ByteBuffer.wrap(output.getEncodedAddress()), addressOutputs.size());
+            if (number == null) {
+                number = addressOutputs.size();
+                addressOutputs.add(output);
+            }
+            addressOf[i] = number;
+            if (i == 0 || !Arrays.equals(utxos.get(i - 1).getTxHash(), utxos.get(i).getTxHash()))
+                transactions++;
+        }
+
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            buffer.putLong(CHECKPOINT_MAGIC);
+            buffer.putLong(sequence);
+            TransactionCodec.putVarInt(buffer, addressOutputs.size());
+            for (Transaction.Output output : addressOutputs) {
+                buffer = ensureRemaining(channel, buffer, crc, TransactionCodec.addressSize(output));
+                TransactionCodec.putAddress(buffer, output);
+            }
+            buffer = ensureRemaining(channel, buffer, crc, 5);
+            TransactionCodec.putVarInt(buffer, transactions);
+            for (int start = 0; start < utxos.size(); ) {
+                byte[] txHash = utxos.get(start).getTxHash();
+                int end = start + 1;
+                while (end < utxos.size() && Arrays.equals(utxos.get(end).getTxHash(), txHash))
+                    end++;
+                buffer = ensureRemaining(channel, buffer, crc, TransactionCodec.bytesSize(txHash) + 5);
+                TransactionCodec.putBytes(buffer, txHash);
+                TransactionCodec.putVarInt(buffer, end - start);
+                for (int i = start; i < end; i++) {
+                    buffer = ensureRemaining(channel, buffer, crc, 5 + Long.BYTES + 5);
+                    TransactionCodec.putVarInt(buffer, utxos.get(i).getIndex());
+                    buffer.putLong(Double.doubleToRawLongBits(getTxOutput(utxos.get(i)).value));
+                    TransactionCodec.putVarInt(buffer, addressOf[i]);
+                }
+                start = end;
+            }
+            buffer = ensureRemaining(channel, buffer, crc, Integer.BYTES);
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Without this, a crash could keep the truncated log but lose the rename
+        forceDirectory(directory);
+        checkpointSequence = sequence;
+
+        log.truncate(Long.BYTES);
+        log.force(true);
+        logLength = Long.BYTES;
+    }
+
+    // Forces the entries of <directory>, such as a file just renamed into it, to disk
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Flushes <buffer> into <channel> if fewer than <size> bytes remain, growing it if it is too small
+    private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, CRC32 crc, int size) throws IOException {
+        if (buffer.remaining() >= size)
+            return buffer;
+        crc.update(buffer.array(), 0, buffer.position());
+        flush(channel, buffer);
+        return size > buffer.capacity() ? ByteBuffer.allocate(size) : buffer;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    // Loads the UTXOs of the checkpoint at <path> into the pool, without logging them
+    private void loadCheckpoint(Path path, HashMap<ByteBuffer, RSAKey> addresses) throws IOException {
+        ByteBuffer src;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to map");
+            src = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int length = src.limit() - Integer.BYTES;
+        if (length < Long.BYTES * 2 || src.getLong(0) != CHECKPOINT_MAGIC)
+            throw new IOException(path + " is not a UTXO checkpoint");
+        CRC32 crc = new CRC32();
+        crc.update(src.duplicate().limit(length));
+        if (src.getInt(length) != (int) crc.getValue())
+            throw new IOException(path + " is corrupt");
+
+        src.limit(length).position(Long.BYTES);
+        try {
+            checkpointSequence = src.getLong();
+            RSAKey[] addressTable = new RSAKey[TransactionCodec.getVarInt(src)];
+            for (int i = 0; i < addressTable.length; i++)
+                addressTable[i] = TransactionCodec.getAddress(src, addresses);
+            int transactions = TransactionCodec.getVarInt(src);
+            for (int t = 0; t < transactions; t++) {
+                // The UTXOs of one transaction share its hash array
+                byte[] txHash = TransactionCodec.getBytes(src);
+                int count = TransactionCodec.getVarInt(src);
+                for (int i = 0; i < count; i++) {
+                    int index = TransactionCodec.getVarInt(src);
+                    double value = Double.longBitsToDouble(src.getLong());
+                    super.addUTXO(UTXO.wrap(txHash, index), new Transaction.Output(value, addressTable[TransactionCodec.getVarInt(src)]));
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException(path + " is corrupt", e);
+        }
+    }
+
+    /*
+     Applies the records of the log that are newer than the checkpoint, and
+     cuts the log at the first record that is torn or out of sequence.
+    */
+    private void replay(HashMap<ByteBuffer, RSAKey> addresses) throws IOException {
+        long size = log.size();
+        if (size < Long.BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(LOG_MAGIC).flip();
+            log.truncate(0);
+            while (header.hasRemaining())
+                log.write(header, header.position());
+            log.force(true);
+            logLength = Long.BYTES;
+            return;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(directory.resolve(LOG_FILE) + " is too large to map");
+        ByteBuffer src = log.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (src.getLong() != LOG_MAGIC)
+            throw new IOException(directory.resolve(LOG_FILE) + " is not a UTXO log");
+
+        while (src.remaining() >= RECORD_HEADER_SIZE) {
+            int start = src.position();
+            int bodyLength = src.getInt(start);
+            if (bodyLength <= 0 || bodyLength > src.remaining() - RECORD_HEADER_SIZE)
+                break;
+            CRC32 crc = new CRC32();
+            crc.update(src.duplicate().position(start + Integer.BYTES * 2).limit(start + RECORD_HEADER_SIZE + bodyLength));
+            long recordSequence = src.getLong(start + Integer.BYTES * 2);
+            if (src.getInt(start + Integer.BYTES) != (int) crc.getValue())
+                break;
+            // Records up to the checkpoint may remain if a crash came between the checkpoint and emptying the log
+            if (recordSequence > checkpointSequence) {
+                if (recordSequence != sequence + 1)
+                    break;
+                src.position(start + RECORD_HEADER_SIZE);
+                applyRecord(src.slice().limit(bodyLength), addresses);
+                sequence = recordSequence;
+            }
+            src.position(start + RECORD_HEADER_SIZE + bodyLength);
+        }
+
+        logLength = src.position();
+        if (logLength < size) {
+            log.truncate(logLength);
+            log.force(true);
+        }
+    }
+
+    // Applies the changes of one record, without logging them
+    private void applyRecord(ByteBuffer src, HashMap<ByteBuffer, RSAKey> addresses) throws IOException {
+        try {
+            while (src.hasRemaining()) {
+                byte op = src.get();
+                byte[] txHash = TransactionCodec.getBytes(src);
+                int index = src.getInt();
+                if (op == ADD) {
+                    double value = Double.longBitsToDouble(src.getLong());
+                    super.addUTXO(UTXO.wrap(txHash, index), new Transaction.Output(value, TransactionCodec.getAddress(src, addresses)));
+                } else if (op == REMOVE) {
+                    super.removeUTXO(UTXO.wrap(txHash, index));
+                } else {
+                    throw new IllegalArgumentException("Unknown change " + op);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException(directory.resolve(LOG_FILE) + " has a malformed record", e);
+        }
+    }
+}
@@ -0,0 +1,607 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * A UTXOPool kept in memory-mapped files in a directory, so it survives
+ * restarts and can hold more UTXOs than fit on the heap. Opening an existing
+ * directory maps the files and is done; nothing is deserialized.
+ *
+ * The directory holds three files:
+ *   utxos.map      an open-addressing hash table of fixed 64-byte slots
+ *                  (transaction hash, output index, value, address offset)
+ *   addresses.dat  every address written so far, appended and never rewritten
+ *   journal.log    the slot images of the last sync, while it is being applied
+ *
+ * Changes are kept on the heap until sync() is called; TxHandler calls it when
+ * handleTxs returns. sync() writes the new images of all slots it is about to
+ * change to the journal, forces it, writes them into the table, forces the
+ * table and then empties the journal. After a crash the pool therefore opens
+ * with the UTXOs of the last completed sync: a complete journal is applied
+ * again, a torn one is ignored. Growing the table builds a new file and
+ * renames it over the old one, which is just as safe.
+ *
+ * Only 32-byte (SHA-256) transaction hashes can be stored. getTxOutput
+ * returns a new Output each time. Addresses that are no longer used stay in
+ * addresses.dat. Only the ADDRESS_CACHE_SIZE addresses used most recently
+ * are kept on the heap; the others are read back from addresses.dat as new
+ * (equal) RSAKeys, and an address written again after it was dropped is
+ * appended again.
+ */
+public class MappedUTXOPool extends UTXOPool implements Closeable {
+    public static final int HASH_LENGTH = 32;
+
+    private static final String TABLE_FILE = "utxos.map";
+    private static final String ADDRESS_FILE = "addresses.dat";
+    private static final String JOURNAL_FILE = "journal.log";
+
+    private static final long TABLE_MAGIC = 0x5554584F4D415031L;    // "UTXOMAP1"
+    private static final long JOURNAL_MAGIC = 0x5554584F4A524E31L;  // "UTXOJRN1"
+
+    // Table header: magic, capacity in slots, number of UTXOs, committed length of addresses.dat
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int ADDRESSES_LENGTH_OFFSET = 24;
+
+    // Slot: hash, output index, used flag, value bits, offset of the address in addresses.dat
+    private static final int SLOT_SIZE = 64;
+    private static final int INDEX_FIELD = 32;
+    private static final int USED_FIELD = 36;
+    private static final int VALUE_FIELD = 40;
+    private static final int ADDRESS_FIELD = 48;
+
+    // Journal: magic, capacity, new size, new addresses length, slot count, CRC32 of everything after it
+    private static final int JOURNAL_HEADER_SIZE = 44;
+    private static final int JOURNAL_RECORD_SIZE = Long.BYTES + SLOT_SIZE;
+
+    // Slots never straddle a segment, as both the header and the slots are 64-byte aligned
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long MIN_CAPACITY = 1024;
+    private static final int ADDRESS_CACHE_SIZE = 1 << 16;
+
+    private final Path directory;
+    private FileChannel table;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long committedSize;
+    private final FileChannel addressFile;
+    private long addressesLength;
+    private final FileChannel journal;
+
+    // Changes since the last sync; a null output marks a removed UTXO
+    private final HashMap<UTXO, Transaction.Output> pending = new HashMap<>();
+    private long pendingSizeChange;
+
+    // Recently used addresses of addresses.dat, in both directions, dropping the least recently used
+    private final IdentityHashMap<RSAKey, Long> offsetsByAddress = new IdentityHashMap<>();
+    private final LinkedHashMap<Long, RSAKey> addressesByOffset = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, RSAKey> eldest) {
+            if (size() <= ADDRESS_CACHE_SIZE)
+                return false;
+            offsetsByAddress.remove(eldest.getValue());
+            return true;
+        }
+    };
+
+    // New slot images while sync() works out what to write, by slot number
+    private final HashMap<Long, ByteBuffer> dirty = new HashMap<>();
+
+    /*
+     Opens the pool stored in <directory>, creating the directory and an empty
+     pool if there is none. A journal left behind by a crash is applied first.
+    */
+    public MappedUTXOPool(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(TABLE_FILE + ".tmp"));
+
+        Path tablePath = directory.resolve(TABLE_FILE);
+        if (!Files.exists(tablePath))
+            createTable(tablePath, MIN_CAPACITY, 0, 0);
+        mapTable(tablePath);
+
+        addressFile = FileChannel.open(directory.resolve(ADDRESS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        checkHash(utxo.getTxHash());
+        if (!contains(utxo))
+            pendingSizeChange++;
+        pending.put(utxo, txOut);
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        if (!contains(utxo))
+            return;
+        pendingSizeChange--;
+        if (find(utxo.getTxHash(), utxo.getIndex()) >= 0)
+            pending.put(utxo, null);
+        else
+            pending.remove(utxo);
+    }
+
+    /*
+     Applies <batch> like UTXOPool.apply, checking the hashes of the UTXOs it
+     creates before anything is spent, so a batch that cannot be stored
+     changes nothing.
+    */
+    public boolean apply(UTXOBatch batch) {
+        for (UTXO utxo : batch.getCreations().keySet())
+            checkHash(utxo.getTxHash());
+        return super.apply(batch);
+    }
+
+    /*
+     Returns a transaction output with the value and address stored for UTXO
+     <utxo>, or null if <utxo> is not in the pool.
+    */
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return getTxOutput(ut.getTxHash(), ut.getIndex());
+    }
+
+    // Returns getTxOutput(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        if (pending.containsKey(key))
+            return pending.get(key);
+        long slot = find(txHash, index);
+        if (slot < 0)
+            return null;
+        long position = slotPosition(slot);
+        ByteBuffer segment = segment(position);
+        int base = offset(position);
+        double value = Double.longBitsToDouble(segment.getLong(base + VALUE_FIELD));
+        return new Transaction.Output(value, readAddress(segment.getLong(base + ADDRESS_FIELD)));
+    }
+
+    // Returns true if UTXO <utxo> is in the pool and false otherwise
+    public boolean contains(UTXO utxo) {
+        return contains(utxo.getTxHash(), utxo.getIndex());
+    }
+
+    // Returns contains(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public boolean contains(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        if (pending.containsKey(key))
+            return pending.get(key) != null;
+        return find(txHash, index) >= 0;
+    }
+
+    // Returns an ArrayList of all UTXOs in the pool
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> all = new ArrayList<>((int) Math.min(size(), Integer.MAX_VALUE - 8));
+        for (long slot = 0; slot < capacity; slot++) {
+            UTXO utxo = committedUTXOAt(slot);
+            if (utxo != null)
+                all.add(utxo);
+        }
+        for (Map.Entry<UTXO, Transaction.Output> entry : pending.entrySet()) {
+            if (entry.getValue() != null)
+                all.add(entry.getKey());
+        }
+        return all;
+    }
+
+    /*
+     Returns a Spliterator over the slots of the mapped table followed by the
+     UTXOs added since the last sync. Only the slots being visited are read
+     from the file, so the pool can be far larger than the heap.
+    */
+    public Spliterator<UTXO> spliterator() {
+        Stream<UTXO> added = pending.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .map(Map.Entry::getKey);
+        return Stream.concat(StreamSupport.stream(new SlotSpliterator(0, capacity, this::committedUTXOAt), false), added)
+                .spliterator();
+    }
+
+    // Returns the UTXO stored in <slot> if it is neither empty nor changed since the last sync, and null otherwise
+    private UTXO committedUTXOAt(long slot) {
+        long position = slotPosition(slot);
+        ByteBuffer segment = segment(position);
+        int base = offset(position);
+        if (segment.getInt(base + USED_FIELD) == 0)
+            return null;
+        byte[] txHash = new byte[HASH_LENGTH];
+        segment.duplicate().position(base).get(txHash);
+        UTXO utxo = UTXO.wrap(txHash, segment.getInt(base + INDEX_FIELD));
+        return pending.containsKey(utxo) ? null : utxo;
+    }
+
+    // Returns the number of UTXOs in the pool
+    public long size() {
+        return committedSize + pendingSizeChange;
+    }
+
+    /*
+     Makes all changes since the last sync durable. If the process dies
+     before sync returns, the pool reopens as it was after the previous sync.
+    */
+    public void sync() {
+        if (pending.isEmpty())
+            return;
+        try {
+            long added = 0;
+            for (Map.Entry<UTXO, Transaction.Output> entry : pending.entrySet()) {
+                if (entry.getValue() != null && find(entry.getKey().getTxHash(), entry.getKey().getIndex()) < 0)
+                    added++;
+            }
+            if (committedSize + added > capacity / 4 * 3)
+                grow(committedSize + added);
+
+            // Work out the new slot images without touching the table, then write them ahead
+            for (Map.Entry<UTXO, Transaction.Output> entry : pending.entrySet()) {
+                if (entry.getValue() == null)
+                    removeSlot(entry.getKey());
+                else
+                    putSlot(entry.getKey(), entry.getValue());
+            }
+            addressFile.force(false);
+            long newSize = committedSize + pendingSizeChange;
+            writeJournal(newSize);
+            applyDirty(newSize, addressesLength);
+            clearJournal();
+
+            committedSize = newSize;
+            pending.clear();
+            pendingSizeChange = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            dirty.clear();
+        }
+    }
+
+    // Syncs the pool and closes its files
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            segments = null;
+            table.close();
+            addressFile.close();
+            journal.close();
+        }
+    }
+
+    // Returns the directory this pool is stored in
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /*
+     Returns the slot holding (<txHash>, <index>), or -(empty slot) - 1 where
+     it would be inserted if it is not in the table.
+    */
+    private long find(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return -1 - capacity;  // never stored, and never used as an insertion slot
+        ByteBuffer hash = ByteBuffer.wrap(txHash);
+        long mask = capacity - 1;
+        for (long slot = home(hash.getLong(0), index, mask); ; slot = (slot + 1) & mask) {
+            ByteBuffer image = dirty.isEmpty() ? null : dirty.get(slot);
+            ByteBuffer buffer = image != null ? image : segment(slotPosition(slot));
+            int base = image != null ? 0 : offset(slotPosition(slot));
+            if (buffer.getInt(base + USED_FIELD) == 0)
+                return -slot - 1;
+            if (buffer.getInt(base + INDEX_FIELD) == index && buffer.getLong(base) == hash.getLong(0)
+                    && buffer.getLong(base + 8) == hash.getLong(8) && buffer.getLong(base + 16) == hash.getLong(16)
+                    && buffer.getLong(base + 24) == hash.getLong(24))
+                return slot;
+        }
+    }
+
+    // Transaction hashes are already uniformly distributed, so one word mixed with the index suffices
+    private static long home(long firstWord, int index, long mask) {
+        long h = (firstWord ^ (index * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (h ^ (h >>> 32)) & mask;
+    }
+
+    private void putSlot(UTXO utxo, Transaction.Output txOut) throws IOException {
+        long slot = find(utxo.getTxHash(), utxo.getIndex());
+        if (slot < 0)
+            slot = -slot - 1;
+        ByteBuffer image = image(slot);
+        System.arraycopy(utxo.getTxHash(), 0, image.array(), 0, HASH_LENGTH);
+        image.putInt(INDEX_FIELD, utxo.getIndex());
+        image.putInt(USED_FIELD, 1);
+        image.putLong(VALUE_FIELD, Double.doubleToRawLongBits(txOut.value));
+        image.putLong(ADDRESS_FIELD, writeAddress(txOut.address));
+    }
+
+    private void removeSlot(UTXO utxo) {
+        long slot = find(utxo.getTxHash(), utxo.getIndex());
+        if (slot < 0)
+            return;
+
+        // Shift back the entries of the probe run behind the removed one
+        long mask = capacity - 1;
+        long hole = slot;
+        for (long next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            ByteBuffer source = image(next);
+            if (source.getInt(USED_FIELD) == 0)
+                break;
+            long home = home(source.getLong(0), source.getInt(INDEX_FIELD), mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                System.arraycopy(source.array(), 0, image(hole).array(), 0, SLOT_SIZE);
+                hole = next;
+            }
+        }
+        Arrays.fill(image(hole).array(), (byte) 0);
+    }
+
+    // Returns the new image of <slot>, starting out as a copy of what is in the table
+    private ByteBuffer image(long slot) {
+        ByteBuffer image = dirty.get(slot);
+        if (image == null) {
+            long position = slotPosition(slot);
+            byte[] bytes = new byte[SLOT_SIZE];
+            segment(position).duplicate().position(offset(position)).get(bytes);
+            image = ByteBuffer.wrap(bytes);
+            dirty.put(slot, image);
+        }
+        return image;
+    }
+
+    private void writeJournal(long newSize) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(JOURNAL_HEADER_SIZE + dirty.size() * JOURNAL_RECORD_SIZE);
+        records.position(JOURNAL_HEADER_SIZE);
+        for (Map.Entry<Long, ByteBuffer> entry : dirty.entrySet()) {
+            records.putLong(entry.getKey());
+            records.put(entry.getValue().array());
+        }
+        records.putLong(0, JOURNAL_MAGIC);
+        records.putLong(8, capacity);
+        records.putLong(16, newSize);
+        records.putLong(24, addressesLength);
+        records.putInt(32, dirty.size());
+        records.putLong(36, checksum(records));
+
+        records.rewind();
+        journal.truncate(0);
+        while (records.hasRemaining())
+            journal.write(records, records.position());
+        journal.force(false);
+    }
+
+    private void clearJournal() throws IOException {
+        journal.truncate(0);
+        journal.force(false);
+    }
+
+    // Writes the slot images in dirty and the new header into the table and forces it
+    private void applyDirty(long newSize, long newAddressesLength) {
+        for (Map.Entry<Long, ByteBuffer> entry : dirty.entrySet()) {
+            long position = slotPosition(entry.getKey());
+            segment(position).duplicate().position(offset(position)).put(entry.getValue().array());
+        }
+        segments[0].putLong(SIZE_OFFSET, newSize);
+        segments[0].putLong(ADDRESSES_LENGTH_OFFSET, newAddressesLength);
+        for (MappedByteBuffer segment : segments)
+            segment.force();
+    }
+
+    /*
+     Applies a complete journal left behind by a crash in the middle of sync,
+     and drops addresses written after the last completed sync.
+    */
+    private void recover() throws IOException {
+        long length = journal.size();
+        if (length >= JOURNAL_HEADER_SIZE && length <= Integer.MAX_VALUE) {
+            ByteBuffer records = ByteBuffer.allocate((int) length);
+            while (records.hasRemaining() && journal.read(records, records.position()) >= 0)
+                ;
+            int count = records.getInt(32);
+            if (records.getLong(0) == JOURNAL_MAGIC && records.getLong(8) == capacity && count >= 0
+                    && length == JOURNAL_HEADER_SIZE + (long) count * JOURNAL_RECORD_SIZE
+                    && records.getLong(36) == checksum(records)) {
+                records.position(JOURNAL_HEADER_SIZE);
+                for (int i = 0; i < count; i++) {
+                    long slot = records.getLong();
+                    byte[] bytes = new byte[SLOT_SIZE];
+                    records.get(bytes);
+                    dirty.put(slot, ByteBuffer.wrap(bytes));
+                }
+                applyDirty(records.getLong(16), records.getLong(24));
+                dirty.clear();
+            }
+        }
+        clearJournal();
+
+        committedSize = segments[0].getLong(SIZE_OFFSET);
+        addressesLength = segments[0].getLong(ADDRESSES_LENGTH_OFFSET);
+        if (addressFile.size() > addressesLength) {
+            addressFile.truncate(addressesLength);
+            addressFile.force(false);
+        }
+    }
+
+    private static long checksum(ByteBuffer records) {
+        CRC32 crc = new CRC32();
+        crc.update(records.array(), 0, 36);
+        crc.update(records.array(), JOURNAL_HEADER_SIZE, records.capacity() - JOURNAL_HEADER_SIZE);
+        return crc.getValue();
+    }
+
+    /*
+     Moves the committed UTXOs into a new table with room for <expectedSize>
+     of them. The new table is complete and forced before it replaces the old
+     one, so a crash leaves one or the other.
+    */
+    private void grow(long expectedSize) throws IOException {
+        long newCapacity = capacity;
+        while (newCapacity / 4 * 3 < expectedSize)
+            newCapacity *= 2;
+
+        Path tablePath = directory.resolve(TABLE_FILE);
+        Path newPath = directory.resolve(TABLE_FILE + ".tmp");
+        Files.deleteIfExists(newPath);
+        createTable(newPath, newCapacity, committedSize, addressesLength);
+        try (FileChannel newTable = FileChannel.open(newPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] newSegments = map(newTable, newCapacity);
+            long mask = newCapacity - 1;
+            for (long from = 0; from < capacity; from++) {
+                long position = slotPosition(from);
+                ByteBuffer segment = segment(position);
+                int base = offset(position);
+                if (segment.getInt(base + USED_FIELD) == 0)
+                    continue;
+                long to = home(segment.getLong(base), segment.getInt(base + INDEX_FIELD), mask);
+                while (newSegments[segmentIndex(slotPosition(to))].getInt(offset(slotPosition(to)) + USED_FIELD) != 0)
+                    to = (to + 1) & mask;
+                byte[] bytes = new byte[SLOT_SIZE];
+                segment.duplicate().position(base).get(bytes);
+                long target = slotPosition(to);
+                newSegments[segmentIndex(target)].duplicate().position(offset(target)).put(bytes);
+            }
+            for (MappedByteBuffer segment : newSegments)
+                segment.force();
+        }
+
+        segments = null;
+        table.close();
+        Files.move(newPath, tablePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The journal written next is applied to the new table, so the rename must be durable first
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        }
+        mapTable(tablePath);
+    }
+
+    private static void createTable(Path path, long capacity, long size, long addressesLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(0, TABLE_MAGIC);
+            header.putLong(CAPACITY_OFFSET, capacity);
+            header.putLong(SIZE_OFFSET, size);
+            header.putLong(ADDRESSES_LENGTH_OFFSET, addressesLength);
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            // Extending the file leaves the slots zero, which marks them empty
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + capacity * SLOT_SIZE - 1);
+            channel.force(true);
+        }
+    }
+
+    private void mapTable(Path path) throws IOException {
+        table = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && table.read(header, header.position()) >= 0)
+            ;
+        if (header.getLong(0) != TABLE_MAGIC)
+            throw new IOException(path + " is not a UTXO table");
+        capacity = header.getLong(CAPACITY_OFFSET);
+        if (Long.bitCount(capacity) != 1 || table.size() < HEADER_SIZE + capacity * SLOT_SIZE)
+            throw new IOException(path + " is truncated or damaged");
+        segments = map(table, capacity);
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, long capacity) throws IOException {
+        long length = HEADER_SIZE + capacity * SLOT_SIZE;
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < mapped.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, length - start));
+        }
+        return mapped;
+    }
+
+    private static long slotPosition(long slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int segmentIndex(long position) {
+        return (int) (position >>> SEGMENT_SHIFT);
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (SEGMENT_SIZE - 1));
+    }
+
+    private ByteBuffer segment(long position) {
+        return segments[segmentIndex(position)];
+    }
+
+    // Returns the offset of <address> in addresses.dat, appending it if this pool has not seen it yet
+    private long writeAddress(RSAKey address) throws IOException {
+        Long known = offsetsByAddress.get(address);
+        if (known != null) {
+            addressesByOffset.get(known);  // marks it as recently used
+            return known;
+        }
+        byte[] exponent = address.getExponent().toByteArray();
+        byte[] modulus = address.getModulus().toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + exponent.length + modulus.length);
+        record.putInt(exponent.length).put(exponent).putInt(modulus.length).put(modulus).flip();
+        long offset = addressesLength;
+        while (record.hasRemaining())
+            addressFile.write(record, offset + record.position());
+        addressesLength += record.capacity();
+        addressesByOffset.put(offset, address);
+        offsetsByAddress.put(address, offset);
+        return offset;
+    }
+
+    private RSAKey readAddress(long offset) {
+        RSAKey address = addressesByOffset.get(offset);
+        if (address != null)
+            return address;
+        try {
+            byte[] exponent = readBytes(offset);
+            byte[] modulus = readBytes(offset + Integer.BYTES + exponent.length);
+            address = new RSAKey(new BigInteger(exponent), new BigInteger(modulus));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        addressesByOffset.put(offset, address);
+        offsetsByAddress.put(address, offset);
+        return address;
+    }
+
+    // Reads a length-prefixed byte array from addresses.dat
+    private byte[] readBytes(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (length.hasRemaining()) {
+            if (addressFile.read(length, offset + length.position()) < 0)
+                throw new IOException("addresses.dat is truncated");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+        while (bytes.hasRemaining()) {
+            if (addressFile.read(bytes, offset + Integer.BYTES + bytes.position()) < 0)
+                throw new IOException("addresses.dat is truncated");
+        }
+        return bytes.array();
+    }
+
+    private static void checkHash(byte[] txHash) {
+        if (txHash.length != HASH_LENGTH)
+            throw new IllegalArgumentException("MappedUTXOPool only stores " + HASH_LENGTH + "-byte transaction hashes");
+    }
+}
@@ -0,0 +1,404 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/**
+ * A transaction handler that, instead of accepting a maximal set of mutually
+ * valid transactions, accepts the mutually valid set with the highest total
+ * transaction fee. The fee of a transaction is the sum of its input values
+ * minus the sum of its output values.
+ */
+public class MaxFeeTxHandler {
+    /**
+     * The largest epoch (counted in individually valid transactions) that
+     * Mode.AUTO still solves exactly.
+     */
+    public static final int EXACT_LIMIT = 32;
+
+    /**
+     * How the fee-maximizing set is searched for.
+     */
+    public enum Mode {
+        /**
+         * Branch and bound over all candidate sets. Always finds the maximum,
+         * but takes exponential time in the worst case; meant for small epochs.
+         */
+        EXACT,
+        /**
+         * Greedily accepts the transaction whose not yet accepted ancestors
+         * plus itself pay the most. Runs in roughly O(n log n) for shallow
+         * dependency chains and scales to tens of thousands of transactions.
+         */
+        HEURISTIC,
+        /**
+         * EXACT for epochs of at most EXACT_LIMIT candidates, HEURISTIC otherwise.
+         */
+        AUTO
+    }
+
+    /**
+     * The outcome of selecting transactions for one epoch.
+     */
+    public static class Selection {
+        private final Transaction[] transactions;
+        private final double fees;
+        private final long elapsedNanos;
+        private final boolean exact;
+
+        Selection(Transaction[] transactions, double fees, long elapsedNanos, boolean exact) {
+            this.transactions = transactions;
+            this.fees = fees;
+            this.elapsedNanos = elapsedNanos;
+            this.exact = exact;
+        }
+
+        // The selected transactions, every transaction after the ones it spends from
+        public Transaction[] getTransactions() {
+            return transactions;
+        }
+
+        // The total fee of the selected transactions
+        public double getFees() {
+            return fees;
+        }
+
+        // The time it took to make the selection, in nanoseconds
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Returns true if the selection was made by the exact search
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    private final UTXOPool pool;
+    private final Mode mode;
+    private final SignatureVerifier verifier;
+    private Selection lastSelection;
+
+    /**
+     * Creates a fee-maximizing handler whose current UTXOPool is utxoPool,
+     * using Mode.AUTO.
+     */
+    public MaxFeeTxHandler(UTXOPool utxoPool) {
+        this(utxoPool, Mode.AUTO);
+    }
+
+    public MaxFeeTxHandler(UTXOPool utxoPool, Mode mode) {
+        this(utxoPool, mode, new SignatureVerifier());
+    }
+
+    public MaxFeeTxHandler(UTXOPool utxoPool, Mode mode, SignatureVerifier verifier) {
+        pool = utxoPool;
+        this.mode = mode;
+        this.verifier = verifier;
+    }
+
+    /**
+     * Handles each epoch by receiving an unordered array of proposed
+     * transactions, selecting the mutually valid subset with maximum total
+     * fee, updating the current UTXO pool as appropriate and returning the
+     * selected transactions. Like TxHandler, the pool is synced before
+     * returning, and an epoch whose commit keeps failing throws
+     * IllegalStateException. The fees and the time spent are available afterwards from
+     * getLastSelection().
+     */
+    public Transaction[] handleTxs(Transaction[] possibleTxs) {
+        // The selection is committed all at once; if another handler sharing
+        // the pool spent one of its inputs meanwhile, it is made again, up to
+        // TxHandler.MAX_COMMIT_ATTEMPTS times
+        UTXOBatch batch;
+        var attempts = 0;
+        do {
+            if (attempts++ == TxHandler.MAX_COMMIT_ATTEMPTS)
+                throw new IllegalStateException("epoch not committed after " + TxHandler.MAX_COMMIT_ATTEMPTS + " attempts");
+            lastSelection = select(possibleTxs);
+            batch = new UTXOBatch();
+            for (final var transaction : lastSelection.getTransactions())
+                batch.addTransaction(transaction);
+        } while (!pool.apply(batch));
+
+        pool.sync();
+        return lastSelection.getTransactions();
+    }
+
+    /**
+     * Returns the selection made by the last call to handleTxs, or null if
+     * handleTxs has not been called yet.
+     */
+    public Selection getLastSelection() {
+        return lastSelection;
+    }
+
+    /**
+     * Selects the fee-maximizing mutually valid subset of possibleTxs without
+     * changing the pool.
+     */
+    public Selection select(Transaction[] possibleTxs) {
+        final var start = System.nanoTime();
+        final var candidates = findCandidates(possibleTxs);
+        final var exact = mode == Mode.EXACT || (mode == Mode.AUTO && candidates.size() <= EXACT_LIMIT);
+        final var selected = exact ? selectExactly(candidates) : selectGreedily(candidates);
+
+        final var transactions = new ArrayList<Transaction>();
+        var fees = 0.0;
+        for (var i = 0; i < candidates.size(); i++) {
+            if (!selected[i])
+                continue;
+            transactions.add(candidates.get(i).tx);
+            fees += candidates.get(i).fee;
+        }
+        return new Selection(transactions.toArray(new Transaction[0]), fees, System.nanoTime() - start, exact);
+    }
+
+    /**
+     * Returns the transactions that are valid on their own, i.e. when every
+     * other transaction they spend from is accepted too, in dependency order.
+     */
+    private ArrayList<Candidate> findCandidates(Transaction[] possibleTxs) {
+        // The pool as it would look if every proposed transaction was accepted
+        final var universe = pool.fork();
+        final var producers = new HashMap<ByteBuffer, Integer>();
+        for (var i = 0; i < possibleTxs.length; i++) {
+            final var txHash = possibleTxs[i].getHash();
+            if (txHash == null || producers.putIfAbsent(ByteBuffer.wrap(txHash), i) != null)
+                continue;
+            for (var index = 0; index < possibleTxs[i].numOutputs(); index++) {
+                final var utxo = new UTXO(txHash, index);
+                if (!pool.contains(utxo))
+                    universe.addUTXO(utxo, possibleTxs[i].getOutput(index));
+            }
+        }
+
+        final var validator = new TxHandler(universe, verifier);
+        final var candidates = new ArrayList<Candidate>();
+        final var candidateOfTx = new int[possibleTxs.length];
+        Arrays.fill(candidateOfTx, -1);
+
+        for (final var position : EpochScheduler.schedule(possibleTxs)) {
+            final var tx = possibleTxs[position];
+            final var txHash = tx.getHash();
+            if (txHash == null || producers.get(ByteBuffer.wrap(txHash)) != position || !validator.isValidTx(tx))
+                continue;
+
+            final var inputs = new UTXO[tx.numInputs()];
+            final var parents = new ArrayList<Integer>();
+            var fee = 0.0;
+            var orderable = true;
+            for (var i = 0; i < inputs.length; i++) {
+                final var input = tx.getInput(i);
+                inputs[i] = new UTXO(input.prevTxHash, input.outputIndex);
+                fee += universe.getTxOutput(inputs[i]).value;
+                if (pool.contains(inputs[i]))
+                    continue;
+                final var parent = candidateOfTx[producers.get(ByteBuffer.wrap(input.prevTxHash))];
+                if (parent < 0)
+                    orderable = false;  // the parent is invalid, or not scheduled before this transaction
+                else if (!parents.contains(parent))
+                    parents.add(parent);
+            }
+            if (!orderable)
+                continue;
+            for (final var output : tx.getOutputs())
+                fee -= output.value;
+
+            candidateOfTx[position] = candidates.size();
+            candidates.add(new Candidate(tx, fee, inputs, parents.stream().mapToInt(Integer::intValue).toArray()));
+        }
+        return candidates;
+    }
+
+    private static boolean[] selectExactly(ArrayList<Candidate> candidates) {
+        final var search = new ExactSearch(candidates);
+        search.search(0, 0.0);
+        return search.best;
+    }
+
+    private static boolean[] selectGreedily(ArrayList<Candidate> candidates) {
+        final var count = candidates.size();
+        final var selected = new boolean[count];
+        final var dead = new boolean[count];
+        final var spent = new HashSet<UTXO>();
+        final var claimants = new HashMap<UTXO, ArrayList<Integer>>();
+        for (var i = 0; i < count; i++) {
+            for (final var utxo : candidates.get(i).inputs)
+                claimants.computeIfAbsent(utxo, key -> new ArrayList<>(1)).add(i);
+        }
+
+        // Package fees only ever drop as ancestors get selected, so a stale
+        // queue entry is simply re-inserted with its current fee when popped.
+        final var queue = new PriorityQueue<PackageFee>();
+        for (var i = 0; i < count; i++)
+            queue.add(new PackageFee(i, packageFee(candidates, i, selected)));
+
+        while (!queue.isEmpty()) {
+            final var top = queue.poll();
+            final var candidate = top.candidate;
+            if (selected[candidate] || dead[candidate])
+                continue;
+
+            final var members = collectPackage(candidates, candidate, selected, dead, spent);
+            if (members == null) {
+                dead[candidate] = true;
+                continue;
+            }
+            var fee = 0.0;
+            for (final int member : members)
+                fee += candidates.get(member).fee;
+            if (fee < top.fee) {
+                queue.add(new PackageFee(candidate, fee));
+                continue;
+            }
+
+            for (final int member : members) {
+                selected[member] = true;
+                for (final var utxo : candidates.get(member).inputs) {
+                    spent.add(utxo);
+                    for (final int claimant : claimants.get(utxo)) {
+                        if (claimant != member)
+                            dead[claimant] = true;
+                    }
+                }
+            }
+        }
+        return selected;
+    }
+
+    private static double packageFee(ArrayList<Candidate> candidates, int candidate, boolean[] selected) {
+        var fee = 0.0;
+        for (final int member : ancestorsAndSelf(candidates, candidate, selected))
+            fee += candidates.get(member).fee;
+        return fee;
+    }
+
+    /**
+     * Returns candidate and all its unselected ancestors, or null if they
+     * cannot all be accepted together with the already selected candidates.
+     */
+    private static ArrayList<Integer> collectPackage(ArrayList<Candidate> candidates, int candidate,
+                                                     boolean[] selected, boolean[] dead, HashSet<UTXO> spent) {
+        final var members = ancestorsAndSelf(candidates, candidate, selected);
+        final var claimed = new HashSet<UTXO>();
+        for (final int member : members) {
+            if (dead[member])
+                return null;
+            for (final var utxo : candidates.get(member).inputs) {
+                if (spent.contains(utxo) || !claimed.add(utxo))
+                    return null;
+            }
+        }
+        return members;
+    }
+
+    private static ArrayList<Integer> ancestorsAndSelf(ArrayList<Candidate> candidates, int candidate, boolean[] selected) {
+        final var members = new ArrayList<Integer>();
+        final var seen = new HashSet<Integer>();
+        final var pending = new ArrayList<Integer>();
+        pending.add(candidate);
+        seen.add(candidate);
+        while (!pending.isEmpty()) {
+            final int next = pending.remove(pending.size() - 1);
+            members.add(next);
+            for (final int parent : candidates.get(next).parents) {
+                if (!selected[parent] && seen.add(parent))
+                    pending.add(parent);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * A transaction that is valid on its own, with what is needed to decide
+     * whether it can be accepted together with others.
+     */
+    private static class Candidate {
+        private final Transaction tx;
+        private final double fee;
+        private final UTXO[] inputs;
+        // The candidates (which always come earlier) whose outputs this one spends
+        private final int[] parents;
+
+        Candidate(Transaction tx, double fee, UTXO[] inputs, int[] parents) {
+            this.tx = tx;
+            this.fee = fee;
+            this.inputs = inputs;
+            this.parents = parents;
+        }
+    }
+
+    private static class PackageFee implements Comparable<PackageFee> {
+        private final int candidate;
+        private final double fee;
+
+        PackageFee(int candidate, double fee) {
+            this.candidate = candidate;
+            this.fee = fee;
+        }
+
+        // Highest fee first, then the earliest candidate
+        public int compareTo(PackageFee other) {
+            final var byFee = Double.compare(other.fee, fee);
+            return byFee != 0 ? byFee : Integer.compare(candidate, other.candidate);
+        }
+    }
+
+    /**
+     * Depth-first branch and bound over include/exclude decisions, taken in
+     * dependency order so a candidate's parents are always decided first.
+     */
+    private static class ExactSearch {
+        private final ArrayList<Candidate> candidates;
+        // remainingFees[i] is the total fee of candidates i and later, the bound
+        private final double[] remainingFees;
+        private final boolean[] current;
+        private final HashSet<UTXO> spent = new HashSet<>();
+        private boolean[] best;
+        private double bestFees = -1;
+
+        ExactSearch(ArrayList<Candidate> candidates) {
+            this.candidates = candidates;
+            remainingFees = new double[candidates.size() + 1];
+            for (var i = candidates.size() - 1; i >= 0; i--)
+                remainingFees[i] = remainingFees[i + 1] + candidates.get(i).fee;
+            current = new boolean[candidates.size()];
+            best = new boolean[candidates.size()];
+        }
+
+        void search(int next, double fees) {
+            if (fees + remainingFees[next] <= bestFees)
+                return;
+            if (next == candidates.size()) {
+                best = current.clone();
+                bestFees = fees;
+                return;
+            }
+
+            final var candidate = candidates.get(next);
+            if (canInclude(candidate)) {
+                current[next] = true;
+                spent.addAll(Arrays.asList(candidate.inputs));
+                search(next + 1, fees + candidate.fee);
+                spent.removeAll(Arrays.asList(candidate.inputs));
+                current[next] = false;
+            }
+            search(next + 1, fees);
+        }
+
+        private boolean canInclude(Candidate candidate) {
+            for (final int parent : candidate.parents) {
+                if (!current[parent])
+                    return false;
+            }
+            for (final var utxo : candidate.inputs) {
+                if (spent.contains(utxo))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Holds transactions that handleTxs rejected only because some of their
+ * inputs are not in the UTXO pool, and are not spent by the epoch either:
+ * their parents may simply not have arrived yet. Each orphan is indexed by
+ * the UTXOs it is missing. When a later epoch proposes the transactions
+ * creating all of them, the orphan is released into that epoch, so it is
+ * accepted without being proposed again.
+ *
+ * An orphan keeps the outcome of its precheck and the addresses of the
+ * inputs whose signatures were already verified, so only the signatures of
+ * the inputs that were missing are checked when it is released.
+ *
+ * The pool holds at most maxTransactions orphans, evicting the oldest one
+ * to make room, and drops orphans that waited more than maxAge epochs: a
+ * missing UTXO may as well have been spent long ago, which the UTXO pool
+ * cannot tell apart. An OrphanPool belongs to one TxHandler and is not safe
+ * to share between threads.
+ */
+public class OrphanPool {
+    private final int maxTransactions;
+    private final int maxAge;
+    // Orphans by transaction hash
+    private final HashMap<ByteBuffer, Orphan> orphans = new HashMap<>();
+    // The same orphans, oldest first; one released and added back returns to its place
+    private final TreeSet<Orphan> byAge = new TreeSet<>(
+            Comparator.comparingLong((Orphan orphan) -> orphan.since).thenComparingLong(orphan -> orphan.number));
+    private final HashMap<UTXO, ArrayList<Orphan>> waiting = new HashMap<>();
+    private long epoch;
+    private long numbered;
+    private long added;
+    private long released;
+    private long evicted;
+
+    /**
+     * Creates an empty pool holding at most maxTransactions orphans, each
+     * for at most maxAge epochs after the one that rejected it.
+     */
+    public OrphanPool(int maxTransactions, int maxAge) {
+        if (maxTransactions <= 0 || maxAge <= 0)
+            throw new IllegalArgumentException("maxTransactions and maxAge must be positive");
+        this.maxTransactions = maxTransactions;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the number of orphans in the pool.
+     */
+    public int size() {
+        return orphans.size();
+    }
+
+    /**
+     * Returns true if the transaction with hash txHash is waiting in the pool.
+     */
+    public boolean contains(byte[] txHash) {
+        return orphans.containsKey(ByteBuffer.wrap(txHash));
+    }
+
+    /**
+     * Returns the number of UTXOs orphans are waiting for.
+     */
+    public int getMissingUTXOs() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns how many orphans were added since the pool was created.
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns how many orphans were released into an epoch.
+     */
+    public long getReleased() {
+        return released;
+    }
+
+    /**
+     * Returns how many orphans were dropped because the pool was full or
+     * they were too old.
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Starts a new epoch, dropping the orphans older than maxAge epochs.
+     */
+    void nextEpoch() {
+        epoch++;
+        while (!byAge.isEmpty() && epoch - byAge.first().since > maxAge)
+            evict(byAge.first());
+    }
+
+    /**
+     * Adds orphan, which must be missing at least one input, unless another
+     * orphan with the same hash is already waiting. An orphan taken out by
+     * release and added back keeps its age. Evicts the oldest orphan if the
+     * pool is full.
+     */
+    void add(Orphan orphan) {
+        final var key = ByteBuffer.wrap(orphan.tx.getHash());
+        if (orphans.containsKey(key))
+            return;
+        if (orphan.since < 0) {
+            orphan.since = epoch;
+            orphan.number = numbered++;
+        }
+        orphans.put(key, orphan);
+        byAge.add(orphan);
+        orphan.missing = 0;
+        for (var i = 0; i < orphan.addresses.length; i++) {
+            if (orphan.addresses[i] == null) {
+                final var input = orphan.tx.getInput(i);
+                waiting.computeIfAbsent(new UTXO(input.prevTxHash, input.outputIndex), utxo -> new ArrayList<>(1)).add(orphan);
+                orphan.missing++;
+            }
+        }
+        added++;
+        if (orphans.size() > maxTransactions)
+            evict(byAge.first());
+    }
+
+    /**
+     * Removes the orphan with hash txHash, if any, because the transaction
+     * was proposed again.
+     */
+    void remove(byte[] txHash) {
+        final var orphan = orphans.remove(ByteBuffer.wrap(txHash));
+        if (orphan != null) {
+            byAge.remove(orphan);
+            unindex(orphan);
+        }
+    }
+
+    /**
+     * Takes out of the pool and returns the orphans whose missing UTXOs are
+     * all created by txs, or by orphans released along with them, and fills
+     * in the addresses of those inputs from the outputs creating them. An
+     * orphan only some of whose missing UTXOs are created keeps waiting for
+     * all of them, as the transactions creating them may yet be rejected.
+     */
+    ArrayList<Orphan> release(Transaction[] txs) {
+        final var releasedOrphans = new ArrayList<Orphan>();
+        if (waiting.isEmpty())
+            return releasedOrphans;
+
+        final var resolved = new ArrayList<Orphan>();
+        final var created = new ArrayDeque<Transaction>(txs.length);
+        for (final var tx : txs)
+            created.add(tx);
+        while (!created.isEmpty() && !waiting.isEmpty()) {
+            final var tx = created.poll();
+            final var txHash = tx.getHash();
+            if (txHash == null)
+                continue;
+            for (var index = 0; index < tx.numOutputs(); index++) {
+                final var waitingOrphans = waiting.remove(UTXOKey.probe(txHash, index));
+                if (waitingOrphans == null)
+                    continue;
+                for (final var orphan : waitingOrphans) {
+                    orphan.resolve(txHash, index, tx.getOutput(index).address);
+                    resolved.add(orphan);
+                    if (orphan.missing == 0) {
+                        orphans.remove(ByteBuffer.wrap(orphan.tx.getHash()));
+                        byAge.remove(orphan);
+                        releasedOrphans.add(orphan);
+                        created.add(orphan.tx);
+                    }
+                }
+            }
+        }
+
+        for (final var orphan : resolved) {
+            if (orphan.missing > 0) {
+                for (final int i : orphan.resolvedNow) {
+                    final var input = orphan.tx.getInput(i);
+                    orphan.addresses[i] = null;
+                    orphan.missing++;
+                    waiting.computeIfAbsent(new UTXO(input.prevTxHash, input.outputIndex), utxo -> new ArrayList<>(1)).add(orphan);
+                }
+            }
+            orphan.resolvedNow.clear();
+        }
+        released += releasedOrphans.size();
+        return releasedOrphans;
+    }
+
+    private void evict(Orphan orphan) {
+        orphans.remove(ByteBuffer.wrap(orphan.tx.getHash()));
+        byAge.remove(orphan);
+        unindex(orphan);
+        evicted++;
+    }
+
+    private void unindex(Orphan orphan) {
+        for (var i = 0; i < orphan.addresses.length; i++) {
+            if (orphan.addresses[i] != null)
+                continue;
+            final var input = orphan.tx.getInput(i);
+            final var key = UTXOKey.probe(input.prevTxHash, input.outputIndex);
+            final var waitingOrphans = waiting.get(key);
+            if (waitingOrphans != null && waitingOrphans.remove(orphan) && waitingOrphans.isEmpty())
+                waiting.remove(key);
+        }
+    }
+
+    /**
+     * A transaction waiting for some of its inputs. addresses[i] is the
+     * owner of input i, or null while it is missing; verified[i] is true
+     * once the signature of input i was checked against addresses[i].
+     */
+    static final class Orphan {
+        final Transaction tx;
+        final TxHandler.Precheck precheck;
+        final RSAKey[] addresses;
+        final boolean[] verified;
+        private long since = -1;
+        private long number;
+        private int missing;
+        // Inputs resolved by the release in progress
+        private final ArrayList<Integer> resolvedNow = new ArrayList<>(1);
+
+        Orphan(TxHandler.Precheck precheck) {
+            this.precheck = precheck;
+            tx = precheck.getTransaction();
+            addresses = new RSAKey[tx.numInputs()];
+            verified = new boolean[addresses.length];
+        }
+
+        private void resolve(byte[] txHash, int index, RSAKey address) {
+            for (var i = 0; i < addresses.length; i++) {
+                final var input = tx.getInput(i);
+                if (addresses[i] == null && input.outputIndex == index && Arrays.equals(input.prevTxHash, txHash)) {
+                    addresses[i] = address;
+                    verified[i] = false;
+                    missing--;
+                    resolvedNow.add(i);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A faster RSAKey.verifySignature that gives exactly the same results.
+ *
+ * RSAKey spends almost all of a verification unmasking the OAEP padding: the
+ * mask comes from a PRGen, which builds a new PRF for every 4 bytes, and every
+ * PRF looks up a SecureRandom, a KeyGenerator and a Mac. Here each thread
+ * keeps one SHA-1 digest and one HMAC, derives the PRF keys directly (SHA1PRNG
+ * seeded with the PRF key, like the PRF does), and hashes messages with its
+ * own copy of the all-zero-key PRF instead of the one RSAKey shares between
+ * all threads under a lock.
+ *
+ * The checks that only depend on the key (the modulus must be large enough
+ * to sign, the length a decrypted signature must have) are done once per
+ * address and kept in a per-key context. The exponentiation itself stays
+ * BigInteger.modPow, which already works in Montgomery form and beats plain
+ * square-and-multiply even for the exponent 65537 RSAKeyPair uses.
+ *
+ * The key derivation is checked against PRF and PRGen when the class loads;
+ * if it does not match, or a signature hits one of the cases where RSAKey
+ * throws, the verification is left to RSAKey.verifySignature.
+ */
+public final class RSAVerifier {
+    private static final String HMAC = "HmacSHA256";
+    private static final int DIGEST_LENGTH = PRF.OutputSizeBytes;
+    private static final int RANDOM_BYTES = RSAKey.NUM_RANDOM_BYTES;
+    private static final int ZERO_BYTES = RSAKey.NUM_ZERO_BYTES;
+    private static final int MAX_CONTEXTS = 1 << 16;
+
+    private static final ThreadLocal<Engine> ENGINE = ThreadLocal.withInitial(Engine::new);
+    private static final ConcurrentHashMap<RSAKey, KeyContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final boolean ENABLED = selfTest();
+
+    private RSAVerifier() {
+    }
+
+    /**
+     * Returns true if the fast path passed its self-test; if not, every call
+     * to verifySignature is handed to RSAKey.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns address.verifySignature(message, signature), and throws what it
+     * throws.
+     */
+    public static boolean verifySignature(RSAKey address, byte[] message, byte[] signature) {
+        if (!ENABLED || address == null || message == null || signature == null)
+            return address.verifySignature(message, signature);
+        final var context = context(address);
+        if (!context.canVerify)
+            return address.verifySignature(message, signature);
+
+        // decrypt: the encoding is 1 || x || y with y = h(x)[0..16] ^ r
+        final var encoded = new BigInteger(1, signature).modPow(context.exponent, context.modulus).toByteArray();
+        if (encoded.length != context.encodedLength)
+            return false;
+        final var xLength = encoded.length - 1 - RANDOM_BYTES;
+        final var engine = ENGINE.get();
+        final var hx = engine.digest(encoded, 1, xLength);
+        final var seed = new byte[PRGen.KeySizeBytes];
+        for (var i = 0; i < RANDOM_BYTES; i++)
+            seed[i] = (byte) (hx[i] ^ encoded[1 + xLength + i]);
+
+        // unmask x; the padding must end in 16 zero bytes
+        final var padded = engine.mask(seed, xLength);
+        for (var i = 0; i < xLength; i++)
+            padded[i] ^= encoded[1 + i];
+        for (var i = xLength - ZERO_BYTES; i < xLength; i++) {
+            if (padded[i] != 0)
+                return false;
+        }
+
+        // unpad strips the zeros and the marker byte after the digest; RSAKey
+        // throws when nothing is left, so leave those signatures to it
+        var end = xLength - ZERO_BYTES - 1;
+        while (end >= 0 && padded[end] == 0)
+            end--;
+        if (end <= 0)
+            return address.verifySignature(message, signature);
+        if (end != DIGEST_LENGTH)
+            return false;
+        return MessageDigest.isEqual(Arrays.copyOf(padded, end), engine.digest(message, 0, message.length));
+    }
+
+    // Returns the number of addresses a context is currently kept for
+    static int numContexts() {
+        return CONTEXTS.size();
+    }
+
+    private static KeyContext context(RSAKey address) {
+        final var context = CONTEXTS.get(address);
+        if (context != null)
+            return context;
+        // Addresses are long-lived and few, so a full map is simply started over
+        if (CONTEXTS.size() >= MAX_CONTEXTS)
+            CONTEXTS.clear();
+        return CONTEXTS.computeIfAbsent(address, KeyContext::new);
+    }
+
+    /**
+     * Compares the derived PRF and PRGen outputs with the real ones for a few
+     * keys, including the all-zero key RSAKey hashes with.
+     */
+    private static boolean selfTest() {
+        try {
+            final var random = new Random(RSAVerifier.class.getName().hashCode());
+            final var engine = new Engine();
+            for (var round = 0; round < 4; round++) {
+                final var key = new byte[PRF.KeySizeBytes];
+                if (round > 0)
+                    random.nextBytes(key);
+                final var message = new byte[random.nextInt(100)];
+                random.nextBytes(message);
+
+                engine.init(key);
+                if (!Arrays.equals(new PRF(key).eval(message), engine.prf(message)))
+                    return false;
+
+                final var expected = new byte[1 + random.nextInt(80)];
+                new PRGen(key).nextBytes(expected);
+                if (!Arrays.equals(expected, engine.mask(key, expected.length)))
+                    return false;
+            }
+            return Arrays.equals(new PRF(new byte[PRF.KeySizeBytes]).eval(new byte[] {7}),
+                    engine.digest(new byte[] {7}, 0, 1));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * What verifySignature needs to know about one address.
+     */
+    private static final class KeyContext {
+        private final BigInteger exponent;
+        private final BigInteger modulus;
+        private final int encodedLength;
+        private final boolean canVerify;
+
+        private KeyContext(RSAKey address) {
+            exponent = address.getExponent();
+            modulus = address.getModulus();
+            final var maxPlaintextLength = address.maxPlaintextLength();
+            encodedLength = maxPlaintextLength + 2 * RANDOM_BYTES + 2;
+            canVerify = modulus.signum() > 0 && maxPlaintextLength >= DIGEST_LENGTH;
+        }
+    }
+
+    /**
+     * The per-thread state: a SHA-1 digest for deriving PRF keys, an HMAC
+     * that is re-keyed for every PRF, and an HMAC keyed like RSAKey's PRF.
+     */
+    private static final class Engine {
+        private final MessageDigest sha1;
+        private final Mac prf;
+        private final Mac digest;
+
+        private Engine() {
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+                prf = Mac.getInstance(HMAC);
+                digest = Mac.getInstance(HMAC);
+                digest.init(new SecretKeySpec(deriveKey(new byte[PRF.KeySizeBytes]), HMAC));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // RSAKey's hash h: a PRF with an all-zero key
+        private byte[] digest(byte[] data, int offset, int length) {
+            digest.update(data, offset, length);
+            return digest.doFinal();
+        }
+
+        // Keys prf like new PRF(key)
+        private void init(byte[] key) {
+            try {
+                prf.init(new SecretKeySpec(deriveKey(key), HMAC));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] prf(byte[] data) {
+            return prf.doFinal(data);
+        }
+
+        /**
+         * Returns the first length bytes of new PRGen(key): every 4 bytes come
+         * from a PRF under the current key evaluated at {0}, after which the
+         * key becomes that PRF evaluated at {1}. Random.nextBytes stores each
+         * int least significant byte first.
+         */
+        private byte[] mask(byte[] key, int length) {
+            final var mask = new byte[length];
+            final byte[] zero = {0};
+            final byte[] one = {1};
+            var current = key;
+            for (var i = 0; i < length; ) {
+                init(current);
+                final var bits = prf(zero);
+                current = prf(one);
+                for (var b = 3; b >= 0 && i < length; b--)
+                    mask[i++] = bits[b];
+            }
+            return mask;
+        }
+
+        /**
+         * Returns the HMAC key PRF derives from key: 32 bytes of a SHA1PRNG
+         * seeded with key only. That generator's state starts as SHA-1(seed);
+         * every output block is SHA-1(state), which is then added to the state
+         * as a little-endian number plus one.
+         */
+        private byte[] deriveKey(byte[] key) {
+            final var state = sha1.digest(key);
+            final var derived = new byte[PRF.KeySizeBytes];
+            for (var filled = 0; filled < derived.length; ) {
+                final var output = sha1.digest(state);
+                var carry = 1;
+                var changed = false;
+                for (var i = 0; i < state.length; i++) {
+                    final var sum = state[i] + output[i] + carry;
+                    final var updated = (byte) sum;
+                    changed |= state[i] != updated;
+                    state[i] = updated;
+                    carry = sum >> 8;
+                }
+                if (!changed)
+                    state[0]++;
+                final var count = Math.min(derived.length - filled, output.length);
+                System.arraycopy(output, 0, derived, filled, count);
+                filled += count;
+            }
+            return derived;
+        }
+    }
+}
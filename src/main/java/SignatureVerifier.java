@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the signatures on the inputs of transactions. A verifier created
+ * without an executor checks every signature on the calling thread, exactly
+ * like TxHandler always did. A verifier created with an executor (a
+ * ForkJoinPool, or any other ExecutorService such as a virtual-thread
+ * executor) fans the checks out over that executor. Both report the same
+ * accept/reject decisions. Signatures are checked with RSAVerifier, which
+ * gives the same results as RSAKey.verifySignature in a fraction of the time.
+ */
+public class SignatureVerifier {
+    private final ExecutorService executor;
+    private final VerificationCache cache;
+
+    /**
+     * Creates a verifier that checks all signatures serially on the calling thread.
+     */
+    public SignatureVerifier() {
+        this(null);
+    }
+
+    /**
+     * Creates a verifier that runs signature checks on executor. The executor
+     * is not owned by the verifier and is never shut down by it. Passing null
+     * gives the serial verifier.
+     */
+    public SignatureVerifier(ExecutorService executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Creates a verifier like SignatureVerifier(executor) that looks up every
+     * check in cache first and stores the result of checks it had to run.
+     * Passing a null cache disables caching.
+     */
+    public SignatureVerifier(ExecutorService executor, VerificationCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns true if this verifier hands its work to an executor.
+     */
+    public boolean isParallel() {
+        return executor != null;
+    }
+
+    /**
+     * Returns the cache this verifier uses, or null if it has none.
+     */
+    public VerificationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns true if the signature on input index of tx was made by the owner of address.
+     */
+    public boolean verify(Transaction tx, int index, RSAKey address) {
+        final var message = tx.getRawDataToSign(index);
+        final var signature = tx.getInput(index).signature;
+        if (cache == null || message == null || signature == null)
+            return RSAVerifier.verifySignature(address, message, signature);
+
+        final var key = VerificationCache.key(tx.getHash(), index, message, signature, address);
+        final var cached = cache.get(key);
+        if (cached != null)
+            return cached;
+        final var valid = RSAVerifier.verifySignature(address, message, signature);
+        cache.put(key, valid);
+        return valid;
+    }
+
+    /**
+     * Returns true if, for every i, the signature on input i of tx was made by
+     * the owner of addresses[i]. In parallel mode every input is checked as a
+     * separate task; the first failing check cancels the ones still pending.
+     */
+    public boolean verifyAll(Transaction tx, RSAKey[] addresses) {
+        if (executor == null || addresses.length < 2)
+            return verifySerially(tx, addresses);
+
+        final var completionService = new ExecutorCompletionService<Boolean>(executor);
+        final var futures = new ArrayList<Future<Boolean>>(addresses.length);
+        try {
+            for (var i = 0; i < addresses.length; i++) {
+                final var index = i;
+                futures.add(completionService.submit(() -> verify(tx, index, addresses[index])));
+            }
+
+            for (var i = 0; i < addresses.length; i++) {
+                if (!completionService.take().get())
+                    return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while verifying signatures");
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            for (final var future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Verifies a whole batch of transactions: the result at position i is
+     * verifyAll(txs.get(i), addresses.get(i)). A null entry in addresses means
+     * the signers of that transaction are unknown; its result is false. In
+     * parallel mode every transaction is checked as a separate task.
+     */
+    public boolean[] verifyAll(List<Transaction> txs, List<RSAKey[]> addresses) {
+        final var results = new boolean[txs.size()];
+        if (executor == null) {
+            for (var i = 0; i < results.length; i++)
+                results[i] = addresses.get(i) != null && verifySerially(txs.get(i), addresses.get(i));
+            return results;
+        }
+
+        final var futures = new ArrayList<Future<Boolean>>(results.length);
+        try {
+            for (var i = 0; i < results.length; i++) {
+                final var tx = txs.get(i);
+                final var signers = addresses.get(i);
+                futures.add(executor.submit(() -> signers != null && verifySerially(tx, signers)));
+            }
+
+            for (var i = 0; i < results.length; i++)
+                results[i] = futures.get(i).get();
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while verifying signatures");
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            for (final var future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private boolean verifySerially(Transaction tx, RSAKey[] addresses) {
+        for (var i = 0; i < addresses.length; i++) {
+            if (!verify(tx, i, addresses[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        final var cause = e.getCause();
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A Spliterator over the slots of an open addressing table, as used by
+ * CompactUTXOPool and MappedUTXOPool. It walks the slot range [lo, hi) and
+ * splits by halving that range, so a parallel stream gets disjoint parts of
+ * the table without anything being copied up front.
+ */
+class SlotSpliterator implements Spliterator<UTXO> {
+    // Ranges smaller than this are not split further
+    private static final long MIN_SPLIT = 1024;
+
+    private final LongFunction<UTXO> slots;
+    private long lo;
+    private final long hi;
+
+    /*
+     Creates a Spliterator over slots <lo> to <hi> (exclusive), where <slots>
+     returns the UTXO stored in a slot, or null if the slot is empty.
+    */
+    SlotSpliterator(long lo, long hi, LongFunction<UTXO> slots) {
+        this.slots = slots;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    public boolean tryAdvance(Consumer<? super UTXO> action) {
+        while (lo < hi) {
+            UTXO utxo = slots.apply(lo++);
+            if (utxo != null) {
+                action.accept(utxo);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Spliterator<UTXO> trySplit() {
+        long mid = (lo + hi) >>> 1;
+        if (mid - lo < MIN_SPLIT)
+            return null;
+        SlotSpliterator prefix = new SlotSpliterator(lo, mid, slots);
+        lo = mid;
+        return prefix;
+    }
+
+    // An upper bound: some of the slots are empty
+    public long estimateSize() {
+        return hi - lo;
+    }
+
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+}
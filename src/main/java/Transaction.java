@@ -3,6 +3,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 
 public class Transaction {
 
@@ -31,16 +32,128 @@ public class Transaction {
         public double value;        // value in bitcoins of the output
         public RSAKey address;      // the address or public key of the recipient
 
+        // serialized form of address, kept until address is replaced
+        private EncodedAddress encodedAddress;
+
         public Output(double v, RSAKey addr) {
             value = v;
             address = addr;
         }
+
+        /*
+         Returns value as a fixed-point amount, see Amount.toUnits. Throws
+         ArithmeticException if value is not a representable amount.
+        */
+        public long getUnits() {
+            return Amount.toUnits(value);
+        }
+
+        /*
+         Returns the serialized address: the bytes of its exponent followed by
+         the bytes of its modulus. The result is shared and must not be modified.
+        */
+        byte[] getEncodedAddress() {
+            return encodedAddress().bytes;
+        }
+
+        // Returns the length of the exponent at the start of getEncodedAddress()
+        int getEncodedExponentLength() {
+            return encodedAddress().exponentLength;
+        }
+
+        private EncodedAddress encodedAddress() {
+            RSAKey addr = address;
+            EncodedAddress encoded = encodedAddress;
+            if (encoded == null || encoded.address != addr) {
+                encoded = new EncodedAddress(addr);
+                encodedAddress = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    // An address together with its serialized form, replaced as a whole so it is safe to share between threads
+    private static class EncodedAddress {
+        private final RSAKey address;
+        private final byte[] bytes;
+        private final int exponentLength;
+
+        EncodedAddress(RSAKey address) {
+            byte[] exponent = address.getExponent().toByteArray();
+            byte[] modulus = address.getModulus().toByteArray();
+            this.address = address;
+            exponentLength = exponent.length;
+            bytes = Arrays.copyOf(exponent, exponent.length + modulus.length);
+            System.arraycopy(modulus, 0, bytes, exponent.length, modulus.length);
+        }
     }
 
+    // The serialized outputs together with what they were serialized from, replaced as a whole
+    private static class OutputSection {
+        private final Output[] outputs;
+        private final long[] values;
+        private final RSAKey[] addresses;
+        private final byte[] bytes;
+
+        OutputSection(ArrayList<Output> ops) {
+            int n = ops.size();
+            outputs = ops.toArray(new Output[n]);
+            values = new long[n];
+            addresses = new RSAKey[n];
+            int size = 0;
+            for (int i = 0; i < n; i++) {
+                values[i] = Double.doubleToRawLongBits(outputs[i].value);
+                addresses[i] = outputs[i].address;
+                size += Double.BYTES + outputs[i].getEncodedAddress().length;
+            }
+            ByteBuffer b = ByteBuffer.allocate(size);
+            for (int i = 0; i < n; i++) {
+                b.putLong(values[i]);
+                b.put(outputs[i].getEncodedAddress());
+            }
+            bytes = b.array();
+        }
+
+        /*
+         Returns true if <ops> still holds the same outputs with the same
+         values and addresses as when this section was serialized
+        */
+        boolean matches(ArrayList<Output> ops) {
+            if (ops.size() != outputs.length)
+                return false;
+            for (int i = 0; i < outputs.length; i++) {
+                Output op = ops.get(i);
+                if (op != outputs[i] || op.address != addresses[i]
+                        || Double.doubleToRawLongBits(op.value) != values[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    // The SHA-256 digest used by computeHash(), one per thread; null if the platform lacks SHA-256
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            x.printStackTrace(System.err);
+            return null;
+        }
+    });
+
     private byte[] hash;    // hash of the transaction, its unique id
     private ArrayList<Input> inputs;   // inputs
     private ArrayList<Output> outputs; // outputs
 
+    /*
+     The outputs serialized once for getRawTx and for the data to sign of
+     every input. Outputs can be changed through addOutput, through the list
+     returned by getOutputs and through their public fields, so the section
+     is checked against the outputs (a cheap comparison of references and
+     values) before each use and rebuilt when anything changed.
+    */
+    private OutputSection outputSection;
+
     public Transaction() {
         inputs = new ArrayList<>();
         outputs = new ArrayList<>();
@@ -50,6 +163,7 @@ public class Transaction {
         hash = tx.hash.clone();
         inputs = new ArrayList<>(tx.inputs);
         outputs = new ArrayList<>(tx.outputs);
+        outputSection = tx.outputSection;
     }
 
     public void addInput(byte[] prevTxHash, int outputIndex) {
@@ -62,6 +176,14 @@ public class Transaction {
         outputs.add(op);
     }
 
+    /*
+     Adds an output of <units> units. The output stores Amount.toCoins(units),
+     so it is serialized exactly like addOutput(Amount.toCoins(units), address).
+    */
+    public void addOutputUnits(long units, RSAKey address) {
+        addOutput(Amount.toCoins(units), address);
+    }
+
     public void removeInput(int index) {
         inputs.remove(index);
     }
@@ -79,37 +201,28 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<>();
         if (index > inputs.size())
             return null;
         Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = op.address.getExponent().toByteArray();
-            byte[] addressModulus = op.address.getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                sigData.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                sigData.add(addressModulus[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        byte[] outputSection = getOutputSection();
+        ByteBuffer sigData = ByteBuffer.allocate(inputSize(in, false) + outputSection.length);
+        writeInput(in, false, sigData);
+        sigData.put(outputSection);
+        return sigData.array();
+    }
+
+    // Returns the length of getRawDataToSign(index) without building it
+    public int getRawDataToSignSize(int index) {
+        return inputSize(inputs.get(index), false) + outputsSize();
+    }
+
+    /*
+     Writes getRawDataToSign(index) into <dst> at its current position, so a
+     caller can reuse one (heap or direct) buffer for many transactions.
+    */
+    public void writeRawDataToSign(int index, ByteBuffer dst) {
+        writeInput(inputs.get(index), false, dst);
+        writeOutputs(dst);
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -117,50 +230,119 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<>();
+        byte[] outputSection = getOutputSection();
+        int size = outputSection.length;
+        for (Input in : inputs)
+            size += inputSize(in, true);
+        ByteBuffer rawTx = ByteBuffer.allocate(size);
+        for (Input in : inputs)
+            writeInput(in, true, rawTx);
+        rawTx.put(outputSection);
+        return rawTx.array();
+    }
+
+    // Returns the length of getRawTx() without building it
+    public int getRawTxSize() {
+        int size = outputsSize();
+        for (Input in : inputs)
+            size += inputSize(in, true);
+        return size;
+    }
+
+    /*
+     Writes getRawTx() into <dst> at its current position, so a caller can
+     reuse one (heap or direct) buffer for many transactions.
+    */
+    public void writeRawTx(ByteBuffer dst) {
+        for (Input in : inputs)
+            writeInput(in, true, dst);
+        writeOutputs(dst);
+    }
+
+    /*
+     The serialized form of a transaction is the concatenation of, for each
+     input, its previous transaction hash, its output index (4 bytes, big
+     endian) and its signature, followed by, for each output, its value (8
+     bytes, big endian) and the bytes of its address's exponent and modulus.
+     The data to sign for an input is that input without its signature,
+     followed by all outputs.
+    */
+    private static int inputSize(Input in, boolean withSignature) {
+        int size = Integer.BYTES;
+        if (in.prevTxHash != null)
+            size += in.prevTxHash.length;
+        if (withSignature && in.signature != null)
+            size += in.signature.length;
+        return size;
+    }
+
+    private static void writeInput(Input in, boolean withSignature, ByteBuffer dst) {
+        if (in.prevTxHash != null)
+            dst.put(in.prevTxHash);
+        dst.putInt(in.outputIndex);
+        if (withSignature && in.signature != null)
+            dst.put(in.signature);
+    }
+
+    private int outputsSize() {
+        return getOutputSection().length;
+    }
+
+    private void writeOutputs(ByteBuffer dst) {
+        dst.put(getOutputSection());
+    }
+
+    private byte[] getOutputSection() {
+        OutputSection section = outputSection;
+        if (section == null || !section.matches(outputs)) {
+            section = new OutputSection(outputs);
+            outputSection = section;
+        }
+        return section.bytes;
+    }
+
+    /*
+     Sets the hash of this transaction to the SHA-256 hash of getRawTx(). The
+     serialized inputs and outputs are fed straight into a digest that is
+     reused by every transaction hashed on the same thread, so the raw
+     transaction is never built as a whole.
+    */
+    public void computeHash() {
+        MessageDigest md = SHA_256.get();
+        if (md == null)
+            return;
+        md.reset();
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = op.address.getExponent().toByteArray();
-            byte[] addressModulus = op.address.getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                rawTx.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                rawTx.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                rawTx.add(addressModulus[i]);
-        }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+            if (in.prevTxHash != null)
+                md.update(in.prevTxHash);
+            md.update((byte) (in.outputIndex >>> 24));
+            md.update((byte) (in.outputIndex >>> 16));
+            md.update((byte) (in.outputIndex >>> 8));
+            md.update((byte) in.outputIndex);
+            if (in.signature != null)
+                md.update(in.signature);
+        }
+        md.update(getOutputSection());
+        hash = md.digest();
     }
 
+    /*
+     Same as computeHash(). The name also overrides Object.finalize, so the
+     JVM calls it once more on every transaction that has become garbage;
+     code in this project calls computeHash() instead.
+    */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
-        }
+        computeHash();
+    }
+
+    // Hashes all transactions in <txs>, in parallel on the common ForkJoinPool
+    public static void finalizeAll(Transaction[] txs) {
+        Arrays.stream(txs).parallel().forEach(Transaction::computeHash);
+    }
+
+    // Hashes all transactions in <txs>, in parallel on the common ForkJoinPool
+    public static void finalizeAll(Collection<Transaction> txs) {
+        txs.parallelStream().forEach(Transaction::computeHash);
     }
 
     public void setHash(byte[] h) {
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, versioned binary encoding of transactions, with a decoder that
+ * reads straight from a ByteBuffer, such as a memory-mapped file, instead of
+ * going through ObjectInputStream.
+ *
+ * Every transaction is one record:
+ *
+ *   int     length of the rest of the record
+ *   byte    format version (VERSION)
+ *   bytes   hash
+ *   varint  number of inputs, then for each input
+ *             bytes prevTxHash, int outputIndex, bytes signature
+ *   varint  number of outputs, then for each output
+ *             long value (the bits of the double), varint length of the
+ *             exponent, varint length of the address, and the address: the
+ *             bytes of its exponent followed by those of its modulus
+ *
+ * where bytes is a varint of the length plus one (0 for null) followed by
+ * that many bytes, varints are unsigned LEB128 and ints and longs are big
+ * endian. Records carry their own length and version, so they can be sent
+ * one by one or appended to a file. A file is MAGIC followed by records.
+ */
+public final class TransactionCodec {
+    public static final int MAGIC = 0x53435458;  // "SCTX"
+    public static final byte VERSION = 1;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private TransactionCodec() {
+    }
+
+    // Returns the length of the record of <tx>
+    public static int encodedSize(Transaction tx) {
+        return Integer.BYTES + bodySize(tx);
+    }
+
+    // Returns the record of <tx>
+    public static byte[] encode(Transaction tx) {
+        ByteBuffer dst = ByteBuffer.allocate(encodedSize(tx));
+        encode(tx, dst);
+        return dst.array();
+    }
+
+    /*
+     Writes the record of <tx> into <dst> at its current position. Throws
+     BufferOverflowException if fewer than encodedSize(tx) bytes remain.
+    */
+    public static void encode(Transaction tx, ByteBuffer dst) {
+        encode(tx, bodySize(tx), dst);
+    }
+
+    /*
+     Reads one record from <src> at its current position and returns the
+     transaction, with its hash as encoded (it is not recomputed). Throws
+     IllegalArgumentException if the record is truncated, malformed or of an
+     unknown version.
+    */
+    public static Transaction decode(ByteBuffer src) {
+        return decode(src, null);
+    }
+
+    /*
+     Reads records from <src> until none remain. Outputs to equal addresses
+     share one RSAKey, so a file of many transactions to few addresses does
+     not create an RSAKey per output.
+    */
+    public static Transaction[] decodeAll(ByteBuffer src) {
+        ArrayList<Transaction> txs = new ArrayList<>();
+        iterator(src).forEachRemaining(txs::add);
+        return txs.toArray(new Transaction[0]);
+    }
+
+    /*
+     Returns an iterator that decodes the records of <src> one at a time, as
+     they are asked for, sharing addresses like decodeAll. It advances the
+     position of <src>.
+    */
+    public static Iterator<Transaction> iterator(ByteBuffer src) {
+        HashMap<ByteBuffer, RSAKey> addresses = new HashMap<>();
+        return new Iterator<>() {
+            public boolean hasNext() {
+                return src.hasRemaining();
+            }
+
+            public Transaction next() {
+                if (!src.hasRemaining())
+                    throw new NoSuchElementException();
+                return decode(src, addresses);
+            }
+        };
+    }
+
+    // Writes <txs> to <file>, replacing it
+    public static void write(Path file, Transaction[] txs) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+            for (Transaction tx : txs) {
+                int bodySize = bodySize(tx);
+                if (Integer.BYTES + bodySize > buffer.remaining()) {
+                    flush(channel, buffer);
+                    if (Integer.BYTES + bodySize > buffer.capacity())
+                        buffer = ByteBuffer.allocate(Integer.BYTES + bodySize);
+                }
+                encode(tx, bodySize, buffer);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    // Maps <file>, written by write, into memory and decodes all of its transactions
+    public static Transaction[] read(Path file) throws IOException {
+        try {
+            return decodeAll(map(file));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /*
+     Maps <file>, written by write, into memory and returns the buffer
+     positioned at its first record, to decode with decode or iterator
+    */
+    public static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to map");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < Integer.BYTES || buffer.getInt() != MAGIC)
+                throw new IOException(file + " is not a transaction file");
+            return buffer;
+        }
+    }
+
+    private static int bodySize(Transaction tx) {
+        int size = 1 + bytesSize(tx.getHash()) + varIntSize(tx.numInputs());
+        for (Transaction.Input in : tx.getInputs())
+            size += bytesSize(in.prevTxHash) + Integer.BYTES + bytesSize(in.signature);
+        size += varIntSize(tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs())
+            size += Long.BYTES + addressSize(op);
+        return size;
+    }
+
+    private static void encode(Transaction tx, int bodySize, ByteBuffer dst) {
+        dst.putInt(bodySize);
+        dst.put(VERSION);
+        putBytes(dst, tx.getHash());
+        putVarInt(dst, tx.numInputs());
+        for (Transaction.Input in : tx.getInputs()) {
+            putBytes(dst, in.prevTxHash);
+            dst.putInt(in.outputIndex);
+            putBytes(dst, in.signature);
+        }
+        putVarInt(dst, tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs()) {
+            dst.putLong(Double.doubleToRawLongBits(op.value));
+            putAddress(dst, op);
+        }
+    }
+
+    // Returns the length of the encoded address of <op>
+    static int addressSize(Transaction.Output op) {
+        int length = op.getEncodedAddress().length;
+        return varIntSize(op.getEncodedExponentLength()) + varIntSize(length) + length;
+    }
+
+    // Writes the address of <op>, to be read back with getAddress
+    static void putAddress(ByteBuffer dst, Transaction.Output op) {
+        byte[] address = op.getEncodedAddress();
+        putVarInt(dst, op.getEncodedExponentLength());
+        putVarInt(dst, address.length);
+        dst.put(address);
+    }
+
+    /*
+     The record is read with the limit of <src> set to its end, so a malformed
+     record can never read into the next one. Inputs are built directly
+     rather than through addInput and addSignature, which would copy every
+     array a second time.
+    */
+    private static Transaction decode(ByteBuffer src, HashMap<ByteBuffer, RSAKey> addresses) {
+        int start = src.position();
+        if (src.remaining() < Integer.BYTES)
+            throw new IllegalArgumentException("Truncated transaction record at " + start);
+        int length = src.getInt();
+        if (length < 1 || length > src.remaining())
+            throw new IllegalArgumentException("Truncated transaction record at " + start);
+        int limit = src.limit();
+        src.limit(src.position() + length);
+        try {
+            byte version = src.get();
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported transaction format version " + version + " at " + start);
+
+            Transaction tx = new Transaction();
+            byte[] hash = getBytes(src);
+            int numInputs = getCount(src);
+            ArrayList<Transaction.Input> inputs = tx.getInputs();
+            inputs.ensureCapacity(numInputs);
+            for (int i = 0; i < numInputs; i++) {
+                Transaction.Input in = new Transaction.Input(null, 0);
+                in.prevTxHash = getBytes(src);
+                in.outputIndex = src.getInt();
+                in.signature = getBytes(src);
+                inputs.add(in);
+            }
+            int numOutputs = getCount(src);
+            tx.getOutputs().ensureCapacity(numOutputs);
+            for (int i = 0; i < numOutputs; i++) {
+                double value = Double.longBitsToDouble(src.getLong());
+                tx.addOutput(value, getAddress(src, addresses));
+            }
+            if (src.hasRemaining())
+                throw new IllegalArgumentException("Malformed transaction record at " + start);
+            tx.setHash(hash);
+            return tx;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed transaction record at " + start, e);
+        } finally {
+            src.limit(limit);
+        }
+    }
+
+    /*
+     Reads an address. With <addresses>, the encoded address is first looked
+     up through a view of <src>, so a known address costs no copy at all.
+    */
+    static RSAKey getAddress(ByteBuffer src, HashMap<ByteBuffer, RSAKey> addresses) {
+        int exponentLength = getVarInt(src);
+        int length = getVarInt(src);
+        if (exponentLength < 1 || exponentLength >= length || length > src.remaining())
+            throw new IllegalArgumentException("Malformed address at " + src.position());
+        ByteBuffer view = src.slice();
+        view.limit(length);
+        src.position(src.position() + length);
+        if (addresses != null) {
+            RSAKey address = addresses.get(view);
+            if (address != null)
+                return address;
+        }
+
+        byte[] encoded = new byte[length];
+        view.get(encoded);
+        RSAKey address = new RSAKey(new BigInteger(Arrays.copyOf(encoded, exponentLength)),
+                new BigInteger(Arrays.copyOfRange(encoded, exponentLength, length)));
+        if (addresses != null)
+            addresses.put(ByteBuffer.wrap(encoded), address);
+        return address;
+    }
+
+    static int bytesSize(byte[] bytes) {
+        return bytes == null ? 1 : varIntSize(bytes.length + 1) + bytes.length;
+    }
+
+    static void putBytes(ByteBuffer dst, byte[] bytes) {
+        if (bytes == null) {
+            putVarInt(dst, 0);
+            return;
+        }
+        putVarInt(dst, bytes.length + 1);
+        dst.put(bytes);
+    }
+
+    static byte[] getBytes(ByteBuffer src) {
+        int length = getVarInt(src) - 1;
+        if (length < 0)
+            return null;
+        if (length > src.remaining())
+            throw new IllegalArgumentException("Malformed transaction record at " + src.position());
+        byte[] bytes = new byte[length];
+        src.get(bytes);
+        return bytes;
+    }
+
+    // Reads a number of inputs or outputs, each of which takes at least one byte
+    private static int getCount(ByteBuffer src) {
+        int count = getVarInt(src);
+        if (count > src.remaining())
+            throw new IllegalArgumentException("Malformed transaction record at " + src.position());
+        return count;
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarInt(ByteBuffer dst, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer src) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = src.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IllegalArgumentException("Negative length at " + src.position());
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at " + src.position());
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -1,8 +1,17 @@
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 public class TxHandler {
+    // How many times handleTxs, and MaxFeeTxHandler's, handle an epoch again before giving up
+    static final int MAX_COMMIT_ATTEMPTS = 64;
+
     private final UTXOPool pool;
+    private final SignatureVerifier verifier;
+    private final OrphanPool orphans;
 
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent
@@ -10,7 +19,30 @@ public class TxHandler {
      * utxoPool by using the UTXOPool(UTXOPool uPool) constructor.
      */
     public TxHandler(UTXOPool utxoPool) {
+        this(utxoPool, new SignatureVerifier());
+    }
+
+    /**
+     * Creates a public ledger like TxHandler(UTXOPool), which checks the
+     * signatures of transactions with verifier. A parallel verifier spreads
+     * the signature checks of each transaction, and of whole epochs in
+     * handleTxs, over its executor.
+     */
+    public TxHandler(UTXOPool utxoPool, SignatureVerifier verifier) {
+        this(utxoPool, verifier, null);
+    }
+
+    /**
+     * Creates a public ledger like TxHandler(UTXOPool, SignatureVerifier)
+     * that keeps the transactions handleTxs rejects only for inputs missing
+     * from the pool in orphans, and accepts them in the epoch that proposes
+     * the transactions creating those inputs. Passing null orphans drops
+     * such transactions, like TxHandler always did.
+     */
+    public TxHandler(UTXOPool utxoPool, SignatureVerifier verifier, OrphanPool orphans) {
         pool = utxoPool;
+        this.verifier = verifier;
+        this.orphans = orphans;
     }
 
     /**
@@ -23,39 +55,102 @@ public class TxHandler {
      * and false otherwise.
      */
     public boolean isValidTx(Transaction tx) {
-        final var inputs = tx.getInputs();
-        var inputSum = 0.0;
-        final var utxoList = new HashSet<UTXO>();
+        return isValidTx(pool, precheck(tx), null);
+    }
 
-        for (final var input : inputs) {
-            final var utxo = createUtxoFromTransactionInput(input);
+    /**
+     * Returns isValidTx(precheck.getTransaction()), running only the checks
+     * that depend on the current UTXO pool: (1), (2) and (5).
+     */
+    public boolean isValidTx(Precheck precheck) {
+        return isValidTx(pool, precheck, null);
+    }
 
-            // (1) all outputs claimed by tx are in the current UTXO pool
-            if (!pool.contains(utxo))
-                return false;
+    /**
+     * Runs the checks of isValidTx that do not depend on any UTXO pool,
+     * (3) and (4), and sums the output values for (5). It can run on any
+     * thread, ahead of time; the result holds for as long as tx is not
+     * changed.
+     */
+    public static Precheck precheck(Transaction tx) {
+        // (3) no UTXO is claimed multiple times by tx
+        if (hasDuplicateInputs(tx.getInputs()))
+            return new Precheck(tx, false, 0, 0);
+
+        // Values are summed as fixed-point amounts, see Amount, counting the
+        // values off the unit grid, which may be off by less than a unit
+        // each. A value that is not an amount, or a sum that overflows,
+        // makes tx invalid.
+        var outputSum = 0L;
+        var offGrid = 0;
+        for (final var output : tx.getOutputs()) {
+            if (output.value < 0)
+            	return new Precheck(tx, false, 0, 0);  // (4) all of tx’s output values are non-negative
+            try {
+                outputSum = Amount.add(outputSum, output.value);
+            } catch (ArithmeticException e) {
+                return new Precheck(tx, false, 0, 0);
+            }
+            if (!Amount.isExact(output.value))
+                offGrid++;
+        }
+        return new Precheck(tx, true, outputSum, offGrid);
+    }
 
-            final var output = pool.getTxOutput(utxo);
+    private boolean isValidTx(UTXOPool utxos, Precheck precheck, PreverifiedSignatures preverified) {
+        if (!precheck.valid)
+            return false;
+        final var tx = precheck.tx;
+        final var inputs = tx.getInputs();
+        final var addresses = new RSAKey[inputs.size()];
+        var inputSum = 0L;
+        var offGrid = precheck.offGridOutputs;
 
-            inputSum += output.value;
-            // (2) the signatures on each input of tx are valid
-            if (!output.address.verifySignature(tx.getRawDataToSign(inputs.indexOf(input)), input.signature))
-                return false;
+        // Inputs are looked up by their hash and index directly, so checking
+        // an input does not allocate
+        for (var i = 0; i < inputs.size(); i++) {
+            final var input = inputs.get(i);
 
-            // (3) no UTXO is claimed multiple times by tx
-            if(utxoList.contains(utxo))
+            // (1) all outputs claimed by tx are in the current UTXO pool
+            final var output = utxos.getTxOutput(input.prevTxHash, input.outputIndex);
+            if (output == null)
                 return false;
 
-            utxoList.add(utxo);
+            try {
+                inputSum = Amount.add(inputSum, output.value);
+            } catch (ArithmeticException e) {
+                return false;
+            }
+            if (!Amount.isExact(output.value))
+                offGrid++;
+            addresses[i] = output.address;
         }
 
-        for (final var output : tx.getOutputs()) {
-            inputSum -= output.value;
-            if (output.value < 0)
-            	return false;  // (4) all of tx’s output values are non-negative
-        }
+        // (5) the sum of tx’s input values is greater than or equal to the sum
+        // of its output values. Each value off the unit grid is off by less
+        // than a unit, so only sums closer than that are compared exactly.
+        final var difference = inputSum - precheck.outputSum;
+        if (difference < -offGrid)
+            return false;
+        if (difference <= offGrid && offGrid > 0 && !coversOutputs(utxos, tx))
+            return false;
 
-        // (5) the sum of tx’s input values is greater than or equal to the sum of its output values
-        return inputSum >= 0;
+        // (2) the signatures on each input of tx are valid. Signatures are the
+        // expensive part, so they are checked last, and only checked again if
+        // they were verified up front against different addresses.
+        if (preverified != null && Arrays.equals(preverified.addresses, addresses))
+            return preverified.valid;
+        return verifier.verifyAll(tx, addresses);
+    }
+
+    // Returns true if the exact sum of the input values of tx is at least that of its output values
+    private static boolean coversOutputs(UTXOPool utxos, Transaction tx) {
+        var available = BigDecimal.ZERO;
+        for (final var input : tx.getInputs())
+            available = available.add(Amount.toExact(utxos.getTxOutput(input.prevTxHash, input.outputIndex).value));
+        for (final var output : tx.getOutputs())
+            available = available.subtract(Amount.toExact(output.value));
+        return available.signum() >= 0;
     }
 
     /**
@@ -63,32 +158,340 @@ public class TxHandler {
      * transactions, checking each transaction for correctness,
      * returning a mutually valid array of accepted transactions,
      * and updating the current UTXO pool as appropriate.
+     *
+     * Transactions are applied in the order of EpochScheduler, so a transaction
+     * spending the output of another transaction in the same epoch is accepted
+     * wherever it appears in the array. With a parallel verifier the signatures
+     * of all transactions are checked concurrently first, and only the cheap
+     * checks against the pool run in that order.
+     *
+     * The transactions are checked against a fork of the pool, and the
+     * accepted ones are committed with a single UTXOPool.apply, so the pool
+     * changes all at once or not at all. The pool is synced before returning,
+     * so a persistent pool holds the result of the epoch. Handlers on
+     * different threads may share a ConcurrentUTXOPool: if another handler
+     * spent one of the inputs in the meantime, the commit fails and the epoch
+     * is handled again against the new pool, so no UTXO is ever accepted as
+     * spent twice. Only a pool changed by someone else can fail the commit,
+     * and an epoch that fails MAX_COMMIT_ATTEMPTS times, as on a pool whose
+     * apply is broken, throws IllegalStateException and changes nothing.
+     *
+     * With an OrphanPool, the orphans whose missing inputs are created by
+     * proposedTransactions join the epoch (and are among the transactions
+     * returned if accepted), and the transactions rejected only because
+     * some of their inputs are not in the pool are kept as orphans.
      */
     public Transaction[] handleTxs(Transaction[] proposedTransactions) {
-        final var acceptedTransactions = new ArrayList<Transaction>();
+        final var preverified = new IdentityHashMap<Transaction, PreverifiedSignatures>();
+        final var released = releaseOrphans(proposedTransactions, preverified);
+        final var transactions = Arrays.copyOf(proposedTransactions, proposedTransactions.length + released.size());
+        final var prechecks = new Precheck[transactions.length];
+        for (var i = 0; i < proposedTransactions.length; i++)
+            prechecks[i] = precheck(transactions[i]);
+        for (var i = proposedTransactions.length; i < transactions.length; i++) {
+            final var orphan = released.get(i - proposedTransactions.length);
+            transactions[i] = orphan.tx;
+            prechecks[i] = orphan.precheck;
+        }
+        if (verifier.isParallel())
+            preverifySignatures(transactions, prechecks, preverified);
+        final var schedule = EpochScheduler.schedule(transactions);
+        var spends = 0;
+        var creations = 0;
+        for (final var transaction : transactions) {
+            spends += transaction.numInputs();
+            creations += transaction.numOutputs();
+        }
 
+        ArrayList<Transaction> acceptedTransactions;
+        ArrayList<Integer> orphaned;
+        UTXOBatch batch;
+        var attempts = 0;
+        do {
+            if (attempts++ == MAX_COMMIT_ATTEMPTS)
+                throw new IllegalStateException("epoch not committed after " + MAX_COMMIT_ATTEMPTS + " attempts");
+            final var epoch = pool.fork();
+            acceptedTransactions = new ArrayList<>();
+            orphaned = new ArrayList<>();
+            batch = new UTXOBatch(spends, creations);
+            for (final var position : schedule) {
+                final var transaction = transactions[position];
+                if (applyIfValid(epoch, prechecks[position], preverified.get(transaction), batch))
+                    acceptedTransactions.add(transaction);
+                else if (orphans != null && isOrphan(epoch, prechecks[position]))
+                    orphaned.add(position);
+            }
+        } while (!pool.apply(batch));
+
+        pool.sync();
+        for (final var position : orphaned) {
+            final var orphan = position < proposedTransactions.length
+                    ? new OrphanPool.Orphan(prechecks[position])
+                    : released.get(position - proposedTransactions.length);
+            if (resolveOrphan(orphan))
+                orphans.add(orphan);
+        }
+        return acceptedTransactions.toArray(new Transaction[0]);
+    }
+
+    /**
+     * Checks the transaction of precheck against utxos like isValidTx and,
+     * if it is valid, spends its inputs and adds its outputs in utxos and
+     * records it in batch. Returns true if it was accepted. preverified, if
+     * not null, is the outcome of checking its signatures ahead of time.
+     */
+    boolean applyIfValid(UTXOPool utxos, Precheck precheck, PreverifiedSignatures preverified, UTXOBatch batch) {
+        if (!isValidTx(utxos, precheck, preverified))
+            return false;
+        final var tx = precheck.tx;
+
+        // Spending fails only if another handler sharing the pool spent an
+        // input since it was checked.
+        final var inputs = new UTXO[tx.numInputs()];
+        for (var i = 0; i < inputs.length; i++)
+            inputs[i] = createUtxoFromTransactionInput(tx.getInput(i));
+        if (!utxos.spendAll(inputs))
+            return false;
+
+        batch.addTransaction(tx);
+        final var txHash = tx.getHash();
+        for (var index = 0; index < tx.numOutputs(); index++)
+            utxos.addUTXO(UTXO.wrap(txHash, index), tx.getOutput(index));
+        return true;
+    }
+
+    /**
+     * Returns the transactions handleTxs would accept out of
+     * proposedTransactions, ignoring waiting orphans, without changing the
+     * current UTXO pool or the orphan pool: orphans that handleTxs would
+     * release into the epoch are neither returned nor taken out. The
+     * transactions are applied to a fork of the pool, which costs nothing up
+     * front however large the pool is. To keep the outcome instead, run
+     * handleTxs on a TxHandler over utxoPool.fork() and commit the fork.
+     */
+    public Transaction[] tryTxs(Transaction[] proposedTransactions) {
+        return new TxHandler(pool.fork(), verifier).handleTxs(proposedTransactions);
+    }
+
+    /**
+     * Starts a new epoch of the orphan pool and takes out the orphans whose
+     * missing inputs are created by proposedTransactions. Only the
+     * signatures of the inputs that were missing are verified; the outcome
+     * goes into preverified. An orphan proposed again is handled as a new
+     * transaction instead.
+     */
+    private ArrayList<OrphanPool.Orphan> releaseOrphans(Transaction[] proposedTransactions,
+                                                        IdentityHashMap<Transaction, PreverifiedSignatures> preverified) {
+        final var released = new ArrayList<OrphanPool.Orphan>();
+        if (orphans == null)
+            return released;
+        orphans.nextEpoch();
         for (final var transaction : proposedTransactions) {
-            if (!isValidTx(transaction))
-                continue;
+            if (transaction.getHash() != null)
+                orphans.remove(transaction.getHash());
+        }
+
+        for (final var orphan : orphans.release(proposedTransactions)) {
+            if (verifyResolvedInputs(orphan)) {
+                preverified.put(orphan.tx, new PreverifiedSignatures(orphan.addresses.clone(), true));
+                released.add(orphan);
+            }
+        }
+        return released;
+    }
 
-            acceptedTransactions.add(transaction);
+    private boolean verifyResolvedInputs(OrphanPool.Orphan orphan) {
+        for (var i = 0; i < orphan.addresses.length; i++) {
+            if (!orphan.verified[i]) {
+                if (!verifier.verify(orphan.tx, i, orphan.addresses[i]))
+                    return false;
+                orphan.verified[i] = true;
+            }
+        }
+        return true;
+    }
 
-            // Update the pool: remove old UTXOs and add new ones
-            for (final var input : transaction.getInputs())
-                this.pool.removeUTXO(createUtxoFromTransactionInput(input));
+    /**
+     * Returns true if the transaction of precheck, rejected in the epoch
+     * utxos, may only be missing its parents: it passed its precheck, and
+     * each of its inputs is either in utxos or was never in the pool. An
+     * input spent by the epoch makes it a double spend instead.
+     */
+    private boolean isOrphan(UTXOPool utxos, Precheck precheck) {
+        if (!precheck.valid || precheck.tx.getHash() == null)
+            return false;
+        var missing = false;
+        for (final var input : precheck.tx.getInputs()) {
+            if (utxos.contains(input.prevTxHash, input.outputIndex))
+                continue;
+            if (pool.contains(input.prevTxHash, input.outputIndex))
+                return false;
+            missing = true;
+        }
+        return missing;
+    }
 
+    /**
+     * Looks up the inputs of orphan in the pool, once the epoch rejecting it
+     * is committed, and verifies the signatures of the ones found that were
+     * not verified against the same address yet. Returns true if it is worth
+     * keeping: all those signatures are valid and some input is still missing.
+     */
+    private boolean resolveOrphan(OrphanPool.Orphan orphan) {
+        var missing = false;
+        for (var i = 0; i < orphan.addresses.length; i++) {
+            final var input = orphan.tx.getInput(i);
+            final var output = pool.getTxOutput(input.prevTxHash, input.outputIndex);
+            if (output == null) {
+                orphan.addresses[i] = null;
+                orphan.verified[i] = false;
+                missing = true;
+                continue;
+            }
+            if (!orphan.verified[i] || !UTXOPool.isSameAddress(orphan.addresses[i], output.address)) {
+                if (!verifier.verify(orphan.tx, i, output.address))
+                    return false;
+                orphan.verified[i] = true;
+            }
+            orphan.addresses[i] = output.address;
+        }
+        return missing;
+    }
+
+    /**
+     * Verifies the signatures of all proposed transactions at once, before any
+     * of them is applied to the pool, into preverified. The signer of each
+     * input is looked up in the pool, or among the outputs of the other
+     * proposed transactions. Transactions already in preverified are skipped.
+     * Transactions with an input that cannot be resolved either way, or that
+     * failed their precheck, are left for isValidTx to reject.
+     */
+    private void preverifySignatures(Transaction[] proposedTransactions, Precheck[] prechecks,
+                                     IdentityHashMap<Transaction, PreverifiedSignatures> preverified) {
+        final var epochOutputs = new HashMap<UTXO, Transaction.Output>();
+        for (final var transaction : proposedTransactions) {
             final var txHash = transaction.getHash();
-            var index = 0;
-            for (final var output : transaction.getOutputs()) {
-                this.pool.addUTXO(new UTXO(txHash, index), output);
-                index += 1;
+            if (txHash == null)
+                continue;
+            for (var index = 0; index < transaction.numOutputs(); index++)
+                epochOutputs.put(new UTXO(txHash, index), transaction.getOutput(index));
+        }
+
+        final var candidates = new ArrayList<Transaction>();
+        final var signers = new ArrayList<RSAKey[]>();
+        for (var i = 0; i < proposedTransactions.length; i++) {
+            final var transaction = proposedTransactions[i];
+            if (!prechecks[i].valid || preverified.containsKey(transaction))
+                continue;
+            final var addresses = resolveAddresses(transaction, epochOutputs);
+            if (addresses == null)
+                continue;
+            candidates.add(transaction);
+            signers.add(addresses);
+        }
+
+        final var results = verifier.verifyAll(candidates, signers);
+        for (var i = 0; i < results.length; i++)
+            preverified.put(candidates.get(i), new PreverifiedSignatures(signers.get(i), results[i]));
+    }
+
+    private RSAKey[] resolveAddresses(Transaction tx, HashMap<UTXO, Transaction.Output> epochOutputs) {
+        final var addresses = new RSAKey[tx.numInputs()];
+        for (var i = 0; i < addresses.length; i++) {
+            final var input = tx.getInput(i);
+            var output = pool.getTxOutput(input.prevTxHash, input.outputIndex);
+            if (output == null)
+                output = epochOutputs.get(UTXOKey.probe(input.prevTxHash, input.outputIndex));
+            if (output == null)
+                return null;
+            addresses[i] = output.address;
+        }
+        return addresses;
+    }
+
+    // Transactions have few inputs, so comparing them pairwise is cheaper than a set
+    private static boolean hasDuplicateInputs(ArrayList<Transaction.Input> inputs) {
+        if (inputs.size() <= 16) {
+            for (var i = 1; i < inputs.size(); i++) {
+                if (isClaimedBefore(inputs, i))
+                    return true;
             }
+            return false;
+        }
+        final var claimed = new HashSet<UTXO>(inputs.size() * 2);
+        for (final var input : inputs) {
+            if (!claimed.add(createUtxoFromTransactionInput(input)))
+                return true;
         }
+        return false;
+    }
 
-        return acceptedTransactions.toArray(new Transaction[0]);
+    // Returns true if an input of <inputs> before <index> claims the same UTXO as input <index>
+    private static boolean isClaimedBefore(ArrayList<Transaction.Input> inputs, int index) {
+        final var input = inputs.get(index);
+        for (var i = 0; i < index; i++) {
+            final var other = inputs.get(i);
+            if (other.outputIndex == input.outputIndex && Arrays.equals(other.prevTxHash, input.prevTxHash))
+                return true;
+        }
+        return false;
     }
 
+    // The UTXO shares the hash array of the input, it is only used while handling the transaction
     private static UTXO createUtxoFromTransactionInput(Transaction.Input input) {
-        return new UTXO(input.prevTxHash, input.outputIndex);
+        return UTXO.wrap(input.prevTxHash, input.outputIndex);
+    }
+
+    /**
+     * The outcome of the checks of isValidTx that need no UTXO pool, see
+     * precheck.
+     */
+    public static final class Precheck {
+        private final Transaction tx;
+        private final boolean valid;
+        private final long outputSum;
+        private final int offGridOutputs;
+
+        private Precheck(Transaction tx, boolean valid, long outputSum, int offGridOutputs) {
+            this.tx = tx;
+            this.valid = valid;
+            this.outputSum = outputSum;
+            this.offGridOutputs = offGridOutputs;
+        }
+
+        public Transaction getTransaction() {
+            return tx;
+        }
+
+        /**
+         * Returns false if tx claims a UTXO twice or has an output value that
+         * is negative or not an amount, in which case it is invalid whatever
+         * the pool.
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Returns the sum of the output values in Amount units, or 0 if the
+         * precheck failed.
+         */
+        public long getOutputUnits() {
+            return outputSum;
+        }
+    }
+
+    /**
+     * The outcome of checking the signatures of a transaction against the
+     * given signer addresses, ahead of validating the transaction itself.
+     */
+    static class PreverifiedSignatures {
+        private final RSAKey[] addresses;
+        private final boolean valid;
+
+        PreverifiedSignatures(RSAKey[] addresses, boolean valid) {
+            this.addresses = addresses;
+            this.valid = valid;
+        }
     }
 } 
@@ -1,22 +1,53 @@
 import java.util.Arrays;
+import java.util.Comparator;
 
 /**
- * This class represents an unspent transaction output (UTXO)
+ * This class represents an unspent transaction output (UTXO). A UTXO is an
+ * immutable value: its hash code is computed once, when it is created.
+ * Lookups that should not create one go through a UTXOKey instead.
  */
-public class UTXO implements Comparable<UTXO> {
+public final class UTXO implements Comparable<UTXO> {
+    /*
+     Orders UTXOs by transaction hash, as unsigned bytes, and then by index,
+     so all UTXOs of one transaction are next to each other; the natural
+     ordering compares the index first.
+    */
+    public static final Comparator<UTXO> HASH_ORDER = (a, b) -> {
+        int order = Arrays.compareUnsigned(a.getTxHash(), b.getTxHash());
+        return order != 0 ? order : Integer.compare(a.getIndex(), b.getIndex());
+    };
+
     // Hash of the transaction from which this UTXO originates
-    private byte[] txHash;
+    private final byte[] txHash;
 
     // Index of the corresponding output in said transaction
-    private int index;
+    private final int index;
+
+    // hashCode(), which every HashMap probe asks for
+    private final int hash;
 
     /*
      Creates a new UTXO corresponding to the output with index <index> in the
      transaction whose hash is <txHash>
     */
     public UTXO(byte[] txHash, int index) {
-        this.txHash = Arrays.copyOf(txHash, txHash.length);
+        this(index, Arrays.copyOf(txHash, txHash.length));
+    }
+
+    // Keeps <txHash> itself instead of a copy
+    private UTXO(int index, byte[] txHash) {
+        this.txHash = txHash;
         this.index = index;
+        hash = hash(txHash, index);
+    }
+
+    /*
+     Returns a UTXO like new UTXO(<txHash>, <index>) that keeps <txHash> itself
+     instead of a copy, for code creating many UTXOs of one transaction.
+     <txHash> must not be changed while the UTXO is in use.
+    */
+    static UTXO wrap(byte[] txHash, int index) {
+        return new UTXO(index, txHash);
     }
 
     // Returns the transaction hash of this UTXO
@@ -31,26 +62,22 @@ public class UTXO implements Comparable<UTXO> {
 
     /*
      Compares this UTXO to the one specified by <other>, considering them equal if
-     they have <txHash> arrays with equal contents and equal <index> values
+     they have <txHash> arrays with equal contents and equal <index> values. A
+     UTXOKey set to the same hash and index is equal too.
     */
     public boolean equals(Object other) {
-        if (other == null) {
-            return false;
-        }
-        if (getClass() != other.getClass()) {
+        if (this == other)
+            return true;
+        if (other instanceof UTXOKey)
+            return other.equals(this);
+        if (!(other instanceof UTXO))
             return false;
-        }
+        return ((UTXO) other).matches(txHash, index, hash);
+    }
 
-        UTXO utxo = (UTXO) other;
-        byte[] hash = utxo.txHash;
-        int in = utxo.index;
-        if (hash.length != txHash.length || index != in)
-            return false;
-        for (int i = 0; i < hash.length; i++) {
-            if (hash[i] != txHash[i])
-                return false;
-        }
-        return true;
+    // Returns true if this UTXO has transaction hash <otherHash>, index <otherIndex> and hash code <otherHashCode>
+    boolean matches(byte[] otherHash, int otherIndex, int otherHashCode) {
+        return hash == otherHashCode && index == otherIndex && Arrays.equals(txHash, otherHash);
     }
 
     /*
@@ -58,36 +85,27 @@ public class UTXO implements Comparable<UTXO> {
      (i.e. utxo1.equals(utxo2) => utxo1.hashCode() == utxo2.hashCode())
     */
     public int hashCode() {
-        int hash = 1;
-        hash = hash * 17 + index;
-        hash = hash * 31 + Arrays.hashCode(txHash);
         return hash;
     }
 
-    // Compares this UTXO to the one specified by <utxo>
+    /*
+     Compares this UTXO to the one specified by <utxo>: by index, then by the
+     length of the transaction hash, then by its bytes as signed values
+    */
     public int compareTo(UTXO utxo) {
-        byte[] hash = utxo.txHash;
-        int in = utxo.index;
-        if (in > index)
-            return -1;
-        else if (in < index)
-            return 1;
-        else {
-            int len1 = txHash.length;
-            int len2 = hash.length;
-            if (len2 > len1)
-                return -1;
-            else if (len2 < len1)
-                return 1;
-            else {
-                for (int i = 0; i < len1; i++) {
-                    if (hash[i] > txHash[i])
-                        return -1;
-                    else if (hash[i] < txHash[i])
-                        return 1;
-                }
-                return 0;
-            }
-        }
+        int order = Integer.compare(getIndex(), utxo.getIndex());
+        if (order != 0)
+            return order;
+        byte[] hash = utxo.getTxHash();
+        order = Integer.compare(getTxHash().length, hash.length);
+        return order != 0 ? order : Arrays.compare(getTxHash(), hash);
+    }
+
+    // Returns the hash code of a UTXO with transaction hash <txHash> and index <index>
+    static int hash(byte[] txHash, int index) {
+        int hash = 1;
+        hash = hash * 17 + index;
+        hash = hash * 31 + Arrays.hashCode(txHash);
+        return hash;
     }
 }
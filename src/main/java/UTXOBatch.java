@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A block of changes to a UTXOPool: UTXOs to spend and UTXOs to create,
+ * applied all at once by UTXOPool.apply. A UTXO created by the batch and
+ * spent again by a later change in the same batch never reaches the pool;
+ * the two cancel out.
+ */
+public class UTXOBatch {
+    // UTXOs of the pool the batch spends, in the order they were spent
+    private final ArrayList<UTXO> spends;
+
+    // UTXOs the batch creates and does not spend again, in the order they were created
+    private final LinkedHashMap<UTXO, Transaction.Output> creations;
+
+    // Creates an empty batch
+    public UTXOBatch() {
+        this(16, 16);
+    }
+
+    // Creates an empty batch sized for <expectedSpends> spends and <expectedCreations> creations
+    public UTXOBatch(int expectedSpends, int expectedCreations) {
+        spends = new ArrayList<>(expectedSpends);
+        creations = new LinkedHashMap<>(expectedCreations * 4 / 3 + 1);
+    }
+
+    /*
+     Spends <utxo>. If the batch created <utxo> itself, the creation is
+     dropped instead.
+    */
+    public void spend(UTXO utxo) {
+        if (creations.remove(utxo) == null)
+            spends.add(utxo);
+    }
+
+    // Creates a mapping from UTXO <utxo> to transaction output <txOut>
+    public void create(UTXO utxo, Transaction.Output txOut) {
+        creations.put(utxo, txOut);
+    }
+
+    /*
+     Spends the inputs of <tx> and creates its outputs. The UTXOs share the
+     hash arrays of <tx> and its inputs instead of copying them, so those must
+     not be changed afterwards.
+    */
+    public void addTransaction(Transaction tx) {
+        for (Transaction.Input input : tx.getInputs())
+            spend(UTXO.wrap(input.prevTxHash, input.outputIndex));
+        byte[] txHash = tx.getHash();
+        for (int index = 0; index < tx.numOutputs(); index++)
+            create(UTXO.wrap(txHash, index), tx.getOutput(index));
+    }
+
+    // Returns the UTXOs of the pool this batch spends
+    public List<UTXO> getSpends() {
+        return Collections.unmodifiableList(spends);
+    }
+
+    // Returns the UTXOs this batch creates, each mapped to its transaction output
+    public Map<UTXO, Transaction.Output> getCreations() {
+        return Collections.unmodifiableMap(creations);
+    }
+
+    // Returns true if applying this batch changes nothing
+    public boolean isEmpty() {
+        return spends.isEmpty() && creations.isEmpty();
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.Spliterator;
+
+/**
+ * Pages through the UTXOs of a pool without copying the pool, for exporters
+ * and audits that want to work on a bounded number of UTXOs at a time.
+ * Created by UTXOPool.cursor(). The cursor remembers where it is, so each
+ * page costs only as much as the UTXOs on it. Like the pool's Spliterator,
+ * the pool must not be changed while a cursor is in use.
+ */
+public class UTXOCursor {
+    private final Spliterator<UTXO> source;
+
+    // The UTXO read ahead to answer hasNext, or null
+    private UTXO next;
+
+    // Creates a cursor over the UTXOs of <source>
+    UTXOCursor(Spliterator<UTXO> source) {
+        this.source = source;
+    }
+
+    // Returns true if there are UTXOs left to page through
+    public boolean hasNext() {
+        return next != null || source.tryAdvance(utxo -> next = utxo);
+    }
+
+    /*
+     Returns the next at most <limit> UTXOs, or an empty list if there are
+     none left.
+    */
+    public ArrayList<UTXO> nextPage(int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("limit must be positive");
+        ArrayList<UTXO> page = new ArrayList<>(limit);
+        if (next != null) {
+            page.add(next);
+            next = null;
+        }
+        while (page.size() < limit && source.tryAdvance(page::add)) {
+        }
+        return page;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * A reusable key for looking up a UTXO by transaction hash and index without
+ * creating one. A key is equal to, and has the hash code of, the UTXO with
+ * the same hash and index, so it finds that UTXO in a HashMap keyed by UTXOs.
+ * It is not a UTXO itself, so it cannot end up in a pool or a UTXOBatch.
+ */
+final class UTXOKey {
+    // One key per thread, see probe
+    private static final ThreadLocal<UTXOKey> PROBE = ThreadLocal.withInitial(UTXOKey::new);
+
+    private byte[] txHash;
+    private int index;
+    private int hash;
+
+    private UTXOKey() {
+    }
+
+    /*
+     Returns this thread's key, set to <txHash> and <index> without copying.
+     It may only be passed to lookups that do not keep it, and changes with
+     the next call to probe on the same thread.
+    */
+    static UTXOKey probe(byte[] txHash, int index) {
+        UTXOKey key = PROBE.get();
+        key.txHash = txHash;
+        key.index = index;
+        key.hash = UTXO.hash(txHash, index);
+        return key;
+    }
+
+    // Returns true if <other> is this key or the UTXO this key is set to
+    public boolean equals(Object other) {
+        return this == other || other instanceof UTXO && ((UTXO) other).matches(txHash, index, hash);
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+}
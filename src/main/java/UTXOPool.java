@@ -1,6 +1,12 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class represents a UTXO pool, which is a mapping from UTXOs
@@ -18,9 +24,19 @@ public class UTXOPool {
         H = new HashMap<>();
     }
 
-    // Creates a new UTXOPool that is a copy of <uPool>
+    /*
+     Creates a new UTXOPool that is a copy of <uPool>. Subclasses may keep
+     their UTXOs elsewhere, so those are copied through getAllUTXO.
+    */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<>(uPool.H);
+        if (uPool.getClass() == UTXOPool.class) {
+            H = new HashMap<>(uPool.H);
+        } else {
+            ArrayList<UTXO> all = uPool.getAllUTXO();
+            H = new HashMap<>(all.size() * 4 / 3 + 1);
+            for (UTXO utxo : all)
+                H.put(utxo, uPool.getTxOutput(utxo));
+        }
     }
 
     // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
@@ -46,6 +62,126 @@ public class UTXOPool {
         return H.containsKey(utxo);
     }
 
+    /*
+     Returns getTxOutput(new UTXO(<txHash>, <index>)) without creating or
+     copying anything: the lookup goes through a reusable per-thread key, see
+     UTXOKey. Subclasses that override getTxOutput(UTXO) override this too.
+    */
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        return H.get(UTXOKey.probe(txHash, index));
+    }
+
+    /*
+     Returns contains(new UTXO(<txHash>, <index>)) without creating or copying
+     anything. Subclasses that override contains(UTXO) override this too.
+    */
+    public boolean contains(byte[] txHash, int index) {
+        return H.containsKey(UTXOKey.probe(txHash, index));
+    }
+
+    /*
+     Removes all of <utxos> and returns true if every one of them is in the
+     pool and none appears twice; otherwise changes nothing and returns false.
+     ConcurrentUTXOPool does this atomically.
+    */
+    public boolean spendAll(UTXO[] utxos) {
+        HashSet<UTXO> distinct = new HashSet<>();
+        for (UTXO utxo : utxos) {
+            if (!distinct.add(utxo) || !contains(utxo))
+                return false;
+        }
+        for (UTXO utxo : utxos)
+            removeUTXO(utxo);
+        return true;
+    }
+
+    /*
+     Returns the UTXOs in the pool whose output is owned by <address>, i.e.
+     has an address with the same exponent and modulus. This scans the whole
+     pool; IndexedUTXOPool answers it from an index.
+    */
+    public ArrayList<UTXO> getUTXOsOf(RSAKey address) {
+        ArrayList<UTXO> owned = new ArrayList<>();
+        for (UTXO utxo : getAllUTXO()) {
+            if (isSameAddress(getTxOutput(utxo).address, address))
+                owned.add(utxo);
+        }
+        return owned;
+    }
+
+    /*
+     Returns the indices of the outputs of the transaction with hash <txHash>
+     that are in the pool, in ascending order. This scans the whole pool;
+     IndexedUTXOPool answers it from an index.
+    */
+    public int[] getUnspentIndices(byte[] txHash) {
+        ArrayList<Integer> indices = new ArrayList<>();
+        for (UTXO utxo : getAllUTXO()) {
+            if (Arrays.equals(utxo.getTxHash(), txHash))
+                indices.add(utxo.getIndex());
+        }
+        return indices.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    // Returns true if <a> and <b> have the same exponent and modulus
+    static boolean isSameAddress(RSAKey a, RSAKey b) {
+        return a == b || (a.getModulus().equals(b.getModulus()) && a.getExponent().equals(b.getExponent()));
+    }
+
+    /*
+     Applies <batch>: removes every UTXO it spends, adds every UTXO it creates
+     and returns true if each spent UTXO is in the pool and none is spent
+     twice; otherwise changes nothing and returns false. ConcurrentUTXOPool
+     does this atomically. A pool that cannot store some UTXO the batch
+     creates throws IllegalArgumentException, also without changing anything.
+    */
+    public boolean apply(UTXOBatch batch) {
+        if (!spendAll(batch.getSpends().toArray(new UTXO[0])))
+            return false;
+        for (Map.Entry<UTXO, Transaction.Output> creation : batch.getCreations().entrySet())
+            addUTXO(creation.getKey(), creation.getValue());
+        return true;
+    }
+
+    /*
+     Returns a fork of this pool in O(1): changes to the fork stay in the
+     fork until UTXOPoolFork.commit() applies them to this pool.
+    */
+    public UTXOPoolFork fork() {
+        return new UTXOPoolFork(this);
+    }
+
+    /*
+     Makes all changes to the pool so far durable. Pools that live only in
+     memory have nothing to do; see MappedUTXOPool.
+    */
+    public void sync() {
+    }
+
+    /*
+     Returns a Spliterator over the UTXOs in the pool. Unlike getAllUTXO it
+     copies nothing up front, and it splits into disjoint parts for parallel
+     streams. The pool must not be changed while it is in use; see
+     ConcurrentUTXOPool for the exception. Subclasses that keep their UTXOs
+     elsewhere override it.
+    */
+    public Spliterator<UTXO> spliterator() {
+        return H.keySet().spliterator();
+    }
+
+    /*
+     Returns a sequential Stream over the UTXOs in the pool, see spliterator.
+     stream().parallel() spreads the work over the common ForkJoinPool.
+    */
+    public Stream<UTXO> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    // Returns a cursor that pages through the UTXOs in the pool, see spliterator
+    public UTXOCursor cursor() {
+        return new UTXOCursor(spliterator());
+    }
+
     // Returns an ArrayList of all UTXOs in the pool
     public ArrayList<UTXO> getAllUTXO() {
         Set<UTXO> setUTXO = H.keySet();
@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * A UTXOPool layered over another pool, created by UTXOPool.fork(). Reads
+ * fall through to the parent; additions and removals are kept in an overlay
+ * until they are committed into the parent or discarded. Creating a fork is
+ * O(1) whatever the size of the parent, and a fork can be forked again.
+ *
+ * A fork is a view, not a frozen copy: the parent must not be changed while
+ * the fork is in use, except through commit().
+ */
+public class UTXOPoolFork extends UTXOPool {
+    private final UTXOPool parent;
+
+    // Changes made through this fork; a null output marks a removed UTXO
+    private final HashMap<UTXO, Transaction.Output> overlay = new HashMap<>();
+
+    // Creates a fork of <parent> without any changes
+    public UTXOPoolFork(UTXOPool parent) {
+        this.parent = parent;
+    }
+
+    // Returns the pool this fork reads from and commits into
+    public UTXOPool getParent() {
+        return parent;
+    }
+
+    // Adds a mapping from UTXO <utxo> to transaction output <txOut> to the pool
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        overlay.put(utxo, txOut);
+    }
+
+    // Removes the UTXO <utxo> from the pool
+    public void removeUTXO(UTXO utxo) {
+        if (parent.contains(utxo))
+            overlay.put(utxo, null);
+        else
+            overlay.remove(utxo);
+    }
+
+    /*
+     Returns the transaction output corresponding to UTXO <utxo>, or null if
+     <utxo> is not in the pool.
+    */
+    public Transaction.Output getTxOutput(UTXO ut) {
+        if (overlay.containsKey(ut))
+            return overlay.get(ut);
+        return parent.getTxOutput(ut);
+    }
+
+    // Returns true if UTXO <utxo> is in the pool and false otherwise
+    public boolean contains(UTXO utxo) {
+        if (overlay.containsKey(utxo))
+            return overlay.get(utxo) != null;
+        return parent.contains(utxo);
+    }
+
+    // Returns getTxOutput(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        if (overlay.containsKey(key))
+            return overlay.get(key);
+        return parent.getTxOutput(txHash, index);
+    }
+
+    // Returns contains(new UTXO(<txHash>, <index>)) without creating a UTXO
+    public boolean contains(byte[] txHash, int index) {
+        UTXOKey key = UTXOKey.probe(txHash, index);
+        if (overlay.containsKey(key))
+            return overlay.get(key) != null;
+        return parent.contains(txHash, index);
+    }
+
+    // Returns an ArrayList of all UTXOs in the pool
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> all = new ArrayList<>();
+        for (UTXO utxo : parent.getAllUTXO()) {
+            if (!overlay.containsKey(utxo))
+                all.add(utxo);
+        }
+        for (Map.Entry<UTXO, Transaction.Output> entry : overlay.entrySet()) {
+            if (entry.getValue() != null)
+                all.add(entry.getKey());
+        }
+        return all;
+    }
+
+    // Returns a Spliterator over the UTXOs of the parent that the fork did not change, followed by those added through the fork
+    public Spliterator<UTXO> spliterator() {
+        Stream<UTXO> added = overlay.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .map(Map.Entry::getKey);
+        return Stream.concat(parent.stream().filter(utxo -> !overlay.containsKey(utxo)), added).spliterator();
+    }
+
+    /*
+     Returns the UTXOs owned by <address>: those of the parent that the fork
+     did not change, and those added through the fork. Costs one parent query
+     plus a pass over the changes.
+    */
+    public ArrayList<UTXO> getUTXOsOf(RSAKey address) {
+        ArrayList<UTXO> owned = new ArrayList<>();
+        for (UTXO utxo : parent.getUTXOsOf(address)) {
+            if (!overlay.containsKey(utxo))
+                owned.add(utxo);
+        }
+        for (Map.Entry<UTXO, Transaction.Output> entry : overlay.entrySet()) {
+            if (entry.getValue() != null && isSameAddress(entry.getValue().address, address))
+                owned.add(entry.getKey());
+        }
+        return owned;
+    }
+
+    // Returns the unspent output indices of the transaction with hash <txHash>, like getUTXOsOf from the parent and the changes
+    public int[] getUnspentIndices(byte[] txHash) {
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (int index : parent.getUnspentIndices(txHash))
+            indices.add(index);
+        for (Map.Entry<UTXO, Transaction.Output> entry : overlay.entrySet()) {
+            if (!Arrays.equals(entry.getKey().getTxHash(), txHash))
+                continue;
+            if (entry.getValue() == null)
+                indices.remove(entry.getKey().getIndex());
+            else
+                indices.add(entry.getKey().getIndex());
+        }
+        return indices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /*
+     A fork is not durable on its own, so there is nothing to sync. Its
+     changes become durable when they are committed and the parent is synced.
+    */
+    public void sync() {
+    }
+
+    // Returns the number of UTXOs added, replaced or removed through this fork since it was last committed or discarded
+    public int numChanges() {
+        return overlay.size();
+    }
+
+    /*
+     Applies the changes made through this fork to the parent. The fork stays
+     usable and starts out without changes again.
+    */
+    public void commit() {
+        for (Map.Entry<UTXO, Transaction.Output> entry : overlay.entrySet()) {
+            if (entry.getValue() == null)
+                parent.removeUTXO(entry.getKey());
+            else
+                parent.addUTXO(entry.getKey(), entry.getValue());
+        }
+        overlay.clear();
+    }
+
+    // Forgets the changes made through this fork since it was last committed or discarded
+    public void discard() {
+        overlay.clear();
+    }
+}
@@ -0,0 +1,163 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of signature verification results for SignatureVerifier,
+ * so a transaction that is proposed again (for instance after losing a
+ * double spend) is not verified again. When the cache is full the least
+ * recently used result is evicted.
+ *
+ * Results are keyed by the transaction hash, the input index and a SHA-256
+ * digest of everything the result depends on: the signed data of the input,
+ * its signature and the address it is checked against. A result is only
+ * reused when all of them are unchanged, so a transaction modified after it
+ * was hashed, a replaced signature or a UTXO now owned by another address
+ * never gets a cached success. The cache is safe to share between threads.
+ */
+public class VerificationCache {
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Boolean> results;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache holding at most maxEntries results.
+     */
+    public VerificationCache(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        this.maxEntries = maxEntries;
+        results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                if (size() <= VerificationCache.this.maxEntries)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the key under which the result of verifying signature over
+     * message with address is stored for input index of the transaction
+     * with hash txHash (which may be null).
+     */
+    public static Key key(byte[] txHash, int index, byte[] message, byte[] signature, RSAKey address) {
+        final var digest = SHA_256.get();
+        digest.reset();
+        digest.update(ByteBuffer.allocate(3 * Integer.BYTES)
+                .putInt(message.length).putInt(signature.length).putInt(index).array());
+        digest.update(message);
+        digest.update(signature);
+        final var exponent = address.getExponent().toByteArray();
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(exponent.length).array());
+        digest.update(exponent);
+        digest.update(address.getModulus().toByteArray());
+        return new Key(txHash, index, digest.digest());
+    }
+
+    /**
+     * Returns the cached result for key, or null if there is none.
+     */
+    public Boolean get(Key key) {
+        final Boolean result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result == null)
+            misses.increment();
+        else
+            hits.increment();
+        return result;
+    }
+
+    public void put(Key key, boolean valid) {
+        synchronized (results) {
+            results.put(key, valid);
+        }
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a result, or 0 if there
+     * were none yet.
+     */
+    public double getHitRate() {
+        final var found = getHits();
+        final var total = found + getMisses();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    /**
+     * Identifies one verification: transaction hash, input index and the
+     * digest of the verified data.
+     */
+    public static final class Key {
+        private final byte[] txHash;
+        private final int index;
+        private final byte[] digest;
+        private final int hashCode;
+
+        private Key(byte[] txHash, int index, byte[] digest) {
+            this.txHash = txHash == null ? new byte[0] : txHash.clone();
+            this.index = index;
+            this.digest = digest;
+            hashCode = 31 * Arrays.hashCode(digest) + index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            final var key = (Key) other;
+            return index == key.index && Arrays.equals(digest, key.digest) && Arrays.equals(txHash, key.txHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Generates large, reproducible workloads for TxHandler: a UTXO pool of any
+ * size followed by a number of epochs, written to a file that WorkloadReader
+ * replays. Key pairs come from a PRGen and RSAKeyPair like in the tests, and
+ * every other choice from a Random with the same seed, so a seed always
+ * gives the same file.
+ *
+ * The shape of the epochs is configurable:
+ *   fan-in and fan-out      1 to maxInputs inputs and 1 to maxOutputs outputs
+ *   chainDepth, chainRate   how deep transactions may build on outputs of the
+ *                           same epoch, and how often an input does so
+ *   doubleSpendRate         how often a transaction spends a UTXO that an
+ *                           earlier transaction of the epoch already spends
+ *   invalidSignatureRate    how often a transaction carries a bad signature
+ * Every transaction is otherwise valid and pays a 1% fee. Proposals are
+ * shuffled, and the file records for each transaction whether TxHandler
+ * accepts it, which the generator works out by applying the epoch in
+ * EpochScheduler order.
+ *
+ * File format (all numbers big-endian, "varint" = unsigned LEB128):
+ *   int magic, byte version, long seed
+ *   varint people, then per person: varint length + exponent, varint length + modulus
+ *   records, each starting with a tag byte:
+ *     POOL   hash[32], varint outputs, per output: double value, varint person
+ *     EPOCH  varint transactions, per transaction:
+ *              hash[32], byte accepted,
+ *              varint inputs, per input: prevTxHash[32], varint index, varint length + signature,
+ *              varint outputs, per output: double value, varint person
+ *     END
+ */
+public class WorkloadGenerator {
+    public static final int MAGIC = 0x53435754;  // "SCWT"
+    public static final byte VERSION = 1;
+    public static final byte POOL = 1;
+    public static final byte EPOCH = 2;
+    public static final byte END = 0;
+
+    static final int HASH_LENGTH = 32;
+    private static final int OUTPUTS_PER_GENESIS_TX = 100;
+    private static final double FEE = 0.01;
+    private static final int OAEP_RANDOM_BYTES = 16;
+
+    // The hash RSAKey signs: a PRF with an all-zero key
+    private static final PRF DIGEST = new PRF(new byte[PRF.KeySizeBytes]);
+
+    private final long seed;
+    private int people = 100;
+    private int keyBits = 265;
+    private int poolSize = 100_000;
+    private double maxValue = 20;
+    private int epochSize = 1_000;
+    private int maxInputs = 4;
+    private int maxOutputs = 4;
+    private int chainDepth = 3;
+    private double chainRate = 0.2;
+    private double doubleSpendRate = 0.05;
+    private double invalidSignatureRate = 0.02;
+
+    private Random random;
+    private RSAKeyPair[] keyPairs;
+    private Coins pool;
+
+    /**
+     * Creates a generator for the workload identified by seed, with defaults
+     * that the setters below change.
+     */
+    public WorkloadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public WorkloadGenerator people(int people) {
+        this.people = checkPositive(people, "people");
+        return this;
+    }
+
+    public WorkloadGenerator keyBits(int keyBits) {
+        this.keyBits = checkPositive(keyBits, "keyBits");
+        return this;
+    }
+
+    public WorkloadGenerator poolSize(int poolSize) {
+        this.poolSize = checkPositive(poolSize, "poolSize");
+        return this;
+    }
+
+    public WorkloadGenerator maxValue(double maxValue) {
+        if (!(maxValue > 0))
+            throw new IllegalArgumentException("maxValue must be positive");
+        this.maxValue = maxValue;
+        return this;
+    }
+
+    public WorkloadGenerator epochSize(int epochSize) {
+        this.epochSize = checkPositive(epochSize, "epochSize");
+        return this;
+    }
+
+    public WorkloadGenerator maxInputs(int maxInputs) {
+        this.maxInputs = checkPositive(maxInputs, "maxInputs");
+        return this;
+    }
+
+    public WorkloadGenerator maxOutputs(int maxOutputs) {
+        this.maxOutputs = checkPositive(maxOutputs, "maxOutputs");
+        return this;
+    }
+
+    /**
+     * Sets the longest chain of transactions in one epoch that spend each
+     * other's outputs; 1 means transactions only spend UTXOs from the pool.
+     */
+    public WorkloadGenerator chainDepth(int chainDepth) {
+        this.chainDepth = checkPositive(chainDepth, "chainDepth");
+        return this;
+    }
+
+    public WorkloadGenerator chainRate(double chainRate) {
+        this.chainRate = checkRate(chainRate, "chainRate");
+        return this;
+    }
+
+    public WorkloadGenerator doubleSpendRate(double doubleSpendRate) {
+        this.doubleSpendRate = checkRate(doubleSpendRate, "doubleSpendRate");
+        return this;
+    }
+
+    public WorkloadGenerator invalidSignatureRate(double invalidSignatureRate) {
+        this.invalidSignatureRate = checkRate(invalidSignatureRate, "invalidSignatureRate");
+        return this;
+    }
+
+    /**
+     * Writes the pool and then epochs epochs to file. Nothing but the UTXOs
+     * the generator can still spend is kept in memory.
+     */
+    public void write(Path file, int epochs) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            random = new Random(seed);
+            keyPairs = new RSAKeyPair[people];
+            PRGen prGen = new PRGen(ByteBuffer.allocate(HASH_LENGTH).putLong(seed).array());
+            for (int i = 0; i < people; i++)
+                keyPairs[i] = new RSAKeyPair(prGen, keyBits);
+
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(seed);
+            writeVarInt(out, people);
+            for (RSAKeyPair keyPair : keyPairs) {
+                writeBytes(out, keyPair.getPublicKey().getExponent().toByteArray());
+                writeBytes(out, keyPair.getPublicKey().getModulus().toByteArray());
+            }
+
+            writePool(out);
+            for (int i = 0; i < epochs; i++)
+                writeEpoch(out);
+            out.writeByte(END);
+        } finally {
+            keyPairs = null;
+            pool = null;
+        }
+    }
+
+    private void writePool(DataOutputStream out) throws IOException {
+        pool = new Coins(poolSize);
+        for (int created = 0; created < poolSize; ) {
+            int count = Math.min(OUTPUTS_PER_GENESIS_TX, poolSize - created);
+            int[] owners = new int[count];
+            Transaction genesis = new Transaction();
+            for (int i = 0; i < count; i++) {
+                owners[i] = random.nextInt(people);
+                genesis.addOutput(Math.max(Double.MIN_NORMAL, random.nextDouble() * maxValue), keyPairs[owners[i]].getPublicKey());
+            }
+            genesis.computeHash();
+
+            out.writeByte(POOL);
+            out.write(genesis.getHash());
+            writeOutputs(out, genesis, owners);
+            for (int i = 0; i < count; i++)
+                pool.add(genesis.getHash(), i, owners[i], genesis.getOutput(i).value, 0);
+            created += count;
+        }
+    }
+
+    private void writeEpoch(DataOutputStream out) throws IOException {
+        ArrayList<Transaction> txs = new ArrayList<>(epochSize);
+        ArrayList<int[]> outputOwners = new ArrayList<>(epochSize);
+        ArrayList<Boolean> signed = new ArrayList<>(epochSize);
+        Coins taken = new Coins(16);   // pool UTXOs spent by this epoch
+        Coins fresh = new Coins(16);   // unspent outputs of this epoch that may still be built on
+
+        for (int t = 0; t < epochSize && pool.size + fresh.size > 0; t++) {
+            Transaction tx = new Transaction();
+            ArrayList<Integer> signers = new ArrayList<>();
+            double inputSum = 0;
+            int depth = 0;
+
+            int inputs = 1 + random.nextInt(maxInputs);
+            if (taken.size > 0 && random.nextDouble() < doubleSpendRate) {
+                int i = random.nextInt(taken.size);
+                tx.addInput(taken.hash(i), taken.indices[i]);
+                signers.add(taken.owners[i]);
+                inputSum += taken.values[i];
+            }
+            while (tx.numInputs() < inputs) {
+                Coins from;
+                if (fresh.size > 0 && (pool.size == 0 || random.nextDouble() < chainRate))
+                    from = fresh;
+                else if (pool.size > 0)
+                    from = pool;
+                else
+                    break;
+                int i = random.nextInt(from.size);
+                tx.addInput(from.hash(i), from.indices[i]);
+                signers.add(from.owners[i]);
+                inputSum += from.values[i];
+                depth = Math.max(depth, from.depths[i]);
+                if (from == pool)
+                    taken.add(pool.hash(i), pool.indices[i], pool.owners[i], pool.values[i], 0);
+                from.removeAt(i);
+            }
+            depth++;
+
+            int outputs = 1 + random.nextInt(maxOutputs);
+            int[] owners = new int[outputs];
+            double[] shares = new double[outputs];
+            double shareSum = 0;
+            for (int i = 0; i < outputs; i++) {
+                shares[i] = 0.1 + random.nextDouble();
+                shareSum += shares[i];
+            }
+            for (int i = 0; i < outputs; i++) {
+                owners[i] = random.nextInt(people);
+                tx.addOutput(inputSum * (1 - FEE) * shares[i] / shareSum, keyPairs[owners[i]].getPublicKey());
+            }
+
+            for (int i = 0; i < tx.numInputs(); i++)
+                tx.addSignature(sign(keyPairs[signers.get(i)].getPrivateKey(), tx.getRawDataToSign(i)), i);
+            boolean valid = random.nextDouble() >= invalidSignatureRate;
+            if (!valid) {
+                byte[] signature = tx.getInput(random.nextInt(tx.numInputs())).signature;
+                signature[signature.length - 1] ^= 1;
+            }
+            tx.computeHash();
+
+            if (depth < chainDepth) {
+                for (int i = 0; i < outputs; i++)
+                    fresh.add(tx.getHash(), i, owners[i], tx.getOutput(i).value, depth);
+            }
+            txs.add(tx);
+            outputOwners.add(owners);
+            signed.add(valid);
+        }
+
+        // Propose the transactions in random order
+        int[] order = new int[txs.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        Transaction[] proposed = new Transaction[order.length];
+        for (int i = 0; i < order.length; i++)
+            proposed[i] = txs.get(order[i]);
+
+        // Apply the epoch the way TxHandler does to find out which proposals it accepts
+        HashSet<UTXO> unspent = new HashSet<>();
+        for (int i = 0; i < taken.size; i++)
+            unspent.add(new UTXO(taken.hash(i), taken.indices[i]));
+        boolean[] accepted = new boolean[proposed.length];
+        for (int position : EpochScheduler.schedule(proposed)) {
+            Transaction tx = proposed[position];
+            if (!signed.get(order[position]))
+                continue;
+            boolean spendable = true;
+            for (Transaction.Input input : tx.getInputs())
+                spendable &= unspent.contains(new UTXO(input.prevTxHash, input.outputIndex));
+            if (!spendable)
+                continue;
+            accepted[position] = true;
+            for (Transaction.Input input : tx.getInputs())
+                unspent.remove(new UTXO(input.prevTxHash, input.outputIndex));
+            for (int i = 0; i < tx.numOutputs(); i++)
+                unspent.add(new UTXO(tx.getHash(), i));
+        }
+
+        // Give back the pool UTXOs that stay unspent, and add the outputs of accepted transactions
+        for (int i = 0; i < taken.size; i++) {
+            if (unspent.contains(new UTXO(taken.hash(i), taken.indices[i])))
+                pool.add(taken.hash(i), taken.indices[i], taken.owners[i], taken.values[i], 0);
+        }
+        for (int position = 0; position < proposed.length; position++) {
+            if (!accepted[position])
+                continue;
+            Transaction tx = proposed[position];
+            int[] owners = outputOwners.get(order[position]);
+            for (int i = 0; i < tx.numOutputs(); i++) {
+                if (unspent.contains(new UTXO(tx.getHash(), i)))
+                    pool.add(tx.getHash(), i, owners[i], tx.getOutput(i).value, 0);
+            }
+        }
+
+        out.writeByte(EPOCH);
+        writeVarInt(out, proposed.length);
+        for (int position = 0; position < proposed.length; position++) {
+            Transaction tx = proposed[position];
+            out.write(tx.getHash());
+            out.writeBoolean(accepted[position]);
+            writeVarInt(out, tx.numInputs());
+            for (Transaction.Input input : tx.getInputs()) {
+                out.write(input.prevTxHash);
+                writeVarInt(out, input.outputIndex);
+                writeBytes(out, input.signature);
+            }
+            writeOutputs(out, tx, outputOwners.get(order[position]));
+        }
+    }
+
+    /*
+     Signs <message> like RSAKey.sign, whose OAEP padding takes 16 bytes from
+     TrueRandomness and so differs on every run. Here those bytes come from
+     the seeded Random instead; the encoding is otherwise the same, and
+     RSAKey.verifySignature accepts the result.
+    */
+    private byte[] sign(RSAKey privateKey, byte[] message) {
+        byte[] digest = DIGEST.eval(message);
+        int maxPlaintextLength = (privateKey.getModulus().bitLength() - 1) / 8 - 34;  // as in RSAKey
+        byte[] padded = Arrays.copyOf(digest, maxPlaintextLength + 1 + OAEP_RANDOM_BYTES);
+        padded[digest.length] = 1;
+
+        byte[] r = new byte[OAEP_RANDOM_BYTES];
+        random.nextBytes(r);
+        byte[] mask = new byte[padded.length];
+        new PRGen(Arrays.copyOf(r, PRGen.KeySizeBytes)).nextBytes(mask);
+        for (int i = 0; i < padded.length; i++)
+            padded[i] ^= mask[i];
+        byte[] check = DIGEST.eval(padded);
+
+        byte[] encoded = new byte[1 + padded.length + OAEP_RANDOM_BYTES];
+        encoded[0] = 1;
+        System.arraycopy(padded, 0, encoded, 1, padded.length);
+        for (int i = 0; i < OAEP_RANDOM_BYTES; i++)
+            encoded[1 + padded.length + i] = (byte) (check[i] ^ r[i]);
+        return new BigInteger(1, encoded).modPow(privateKey.getExponent(), privateKey.getModulus()).toByteArray();
+    }
+
+    private static void writeOutputs(DataOutputStream out, Transaction tx, int[] owners) throws IOException {
+        writeVarInt(out, tx.numOutputs());
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            out.writeDouble(tx.getOutput(i).value);
+            writeVarInt(out, owners[i]);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int checkPositive(int value, String name) {
+        if (value <= 0)
+            throw new IllegalArgumentException(name + " must be positive");
+        return value;
+    }
+
+    private static double checkRate(double rate, String name) {
+        if (!(rate >= 0 && rate <= 1))
+            throw new IllegalArgumentException(name + " must be between 0 and 1");
+        return rate;
+    }
+
+    /**
+     * Spendable UTXOs with their owner, value and chain depth, in flat arrays
+     * so that millions of them fit comfortably. Removal swaps in the last one.
+     */
+    private static class Coins {
+        private byte[] hashes;
+        private int[] indices;
+        private int[] owners;
+        private double[] values;
+        private int[] depths;
+        private int size;
+
+        Coins(int capacity) {
+            hashes = new byte[capacity * HASH_LENGTH];
+            indices = new int[capacity];
+            owners = new int[capacity];
+            values = new double[capacity];
+            depths = new int[capacity];
+        }
+
+        void add(byte[] hash, int index, int owner, double value, int depth) {
+            if (size == indices.length) {
+                int capacity = Math.max(16, size * 2);
+                hashes = Arrays.copyOf(hashes, capacity * HASH_LENGTH);
+                indices = Arrays.copyOf(indices, capacity);
+                owners = Arrays.copyOf(owners, capacity);
+                values = Arrays.copyOf(values, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            System.arraycopy(hash, 0, hashes, size * HASH_LENGTH, HASH_LENGTH);
+            indices[size] = index;
+            owners[size] = owner;
+            values[size] = value;
+            depths[size] = depth;
+            size++;
+        }
+
+        byte[] hash(int i) {
+            return Arrays.copyOfRange(hashes, i * HASH_LENGTH, (i + 1) * HASH_LENGTH);
+        }
+
+        void removeAt(int i) {
+            int last = --size;
+            System.arraycopy(hashes, last * HASH_LENGTH, hashes, i * HASH_LENGTH, HASH_LENGTH);
+            indices[i] = indices[last];
+            owners[i] = owners[last];
+            values[i] = values[last];
+            depths[i] = depths[last];
+        }
+    }
+
+    /**
+     * Writes a workload file from the command line:
+     *   WorkloadGenerator file seed poolSize epochs epochSize
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("usage: WorkloadGenerator <file> <seed> <poolSize> <epochs> <epochSize>");
+            System.exit(2);
+        }
+        new WorkloadGenerator(Long.parseLong(args[1]))
+                .poolSize(Integer.parseInt(args[2]))
+                .epochSize(Integer.parseInt(args[4]))
+                .write(Path.of(args[0]), Integer.parseInt(args[3]));
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replays a file written by WorkloadGenerator: first the UTXO pool, then one
+ * epoch at a time, so a workload does not have to fit in memory.
+ *
+ *   try (WorkloadReader reader = new WorkloadReader(file)) {
+ *       UTXOPool pool = new UTXOPool();
+ *       reader.readPool(pool);
+ *       TxHandler handler = new TxHandler(pool);
+ *       for (WorkloadReader.Epoch epoch; (epoch = reader.readEpoch()) != null; )
+ *           handler.handleTxs(epoch.getTransactions());
+ *   }
+ */
+public class WorkloadReader implements Closeable {
+    private final DataInputStream in;
+    private final long seed;
+    private final RSAKey[] addresses;
+    private byte next;
+
+    public WorkloadReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != WorkloadGenerator.MAGIC)
+                throw new IOException(file + " is not a workload file");
+            byte version = in.readByte();
+            if (version != WorkloadGenerator.VERSION)
+                throw new IOException(file + " has unsupported workload version " + version);
+            seed = in.readLong();
+            addresses = new RSAKey[readVarInt()];
+            for (int i = 0; i < addresses.length; i++)
+                addresses[i] = new RSAKey(new BigInteger(readBytes()), new BigInteger(readBytes()));
+            next = in.readByte();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Returns the seed the workload was generated with
+    public long getSeed() {
+        return seed;
+    }
+
+    // Returns the public keys of the people in the workload; outputs share these RSAKey objects
+    public RSAKey[] getAddresses() {
+        return addresses.clone();
+    }
+
+    /**
+     * Adds the UTXOs of the workload's pool to pool and returns how many there
+     * were. Must be called before the first readEpoch.
+     */
+    public long readPool(UTXOPool pool) throws IOException {
+        long count = 0;
+        while (next == WorkloadGenerator.POOL) {
+            byte[] txHash = readHash();
+            Transaction genesis = new Transaction();
+            readOutputs(genesis);
+            for (int i = 0; i < genesis.numOutputs(); i++)
+                pool.addUTXO(new UTXO(txHash, i), genesis.getOutput(i));
+            count += genesis.numOutputs();
+            next = in.readByte();
+        }
+        return count;
+    }
+
+    // Returns the next epoch, or null after the last one
+    public Epoch readEpoch() throws IOException {
+        if (next == WorkloadGenerator.POOL)
+            throw new IllegalStateException("readPool must be called before readEpoch");
+        if (next == WorkloadGenerator.END)
+            return null;
+        if (next != WorkloadGenerator.EPOCH)
+            throw new IOException("Unknown workload record " + next);
+
+        Transaction[] txs = new Transaction[readVarInt()];
+        boolean[] accepted = new boolean[txs.length];
+        for (int t = 0; t < txs.length; t++) {
+            Transaction tx = new Transaction();
+            byte[] txHash = readHash();
+            accepted[t] = in.readBoolean();
+            int inputs = readVarInt();
+            for (int i = 0; i < inputs; i++) {
+                tx.addInput(readHash(), readVarInt());
+                tx.addSignature(readBytes(), i);
+            }
+            readOutputs(tx);
+            tx.setHash(txHash);
+            txs[t] = tx;
+        }
+        next = in.readByte();
+        return new Epoch(txs, accepted);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readOutputs(Transaction tx) throws IOException {
+        int outputs = readVarInt();
+        for (int i = 0; i < outputs; i++) {
+            double value = in.readDouble();
+            int person = readVarInt();
+            if (person >= addresses.length)
+                throw new IOException("Unknown person " + person);
+            tx.addOutput(value, addresses[person]);
+        }
+    }
+
+    private byte[] readHash() throws IOException {
+        byte[] hash = new byte[WorkloadGenerator.HASH_LENGTH];
+        in.readFully(hash);
+        return hash;
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IOException("Negative length in workload file");
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint in workload file");
+    }
+
+    /**
+     * The proposed transactions of one epoch, in proposal order, and for each
+     * whether TxHandler.handleTxs accepts it.
+     */
+    public static class Epoch {
+        private final Transaction[] transactions;
+        private final boolean[] accepted;
+
+        Epoch(Transaction[] transactions, boolean[] accepted) {
+            this.transactions = transactions;
+            this.accepted = accepted;
+        }
+
+        public Transaction[] getTransactions() {
+            return transactions;
+        }
+
+        public boolean isAccepted(int index) {
+            return accepted[index];
+        }
+
+        public int numAccepted() {
+            int count = 0;
+            for (boolean a : accepted) {
+                if (a)
+                    count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+public class TestMaxFeeTxHandler {
+    private UTXOPool uPool;
+
+    private static String getResourcePath(final String fileName) {
+        return TestMaxFeeTxHandler.class.getResource(fileName).getPath();
+    }
+
+    public TestMaxFeeTxHandler() throws IOException {
+        String skpFile = getResourcePath("SampleMaxFeeKeyPairs.txt");
+        String supFile = getResourcePath("SampleMaxFeeUTXOPool.txt");
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(skpFile);
+        SampleUTXOPool sup = SampleUTXOPoolFileHandler.readSampleUTXOPoolFromFile(skp, supFile);
+
+        uPool = sup.getPool();
+    }
+
+    @Test
+    @DisplayName("Test 1: test handleTransactions() finding the maximum fee set with the exact search")
+    public void test1() throws IOException {
+        for (int part = 1; part <= 3; part++) {
+            Transaction[] allTxs = readTransactions(part);
+
+            MaxFeeTxHandler student = new MaxFeeTxHandler(new UTXOPool(uPool), MaxFeeTxHandler.Mode.EXACT);
+            MaxFeeTxHandlerVerifier verifier = new MaxFeeTxHandlerVerifier(uPool);
+
+            System.out.println("Total Transactions = " + allTxs.length);
+            Transaction[] stx = student.handleTxs(allTxs.clone());
+            MaxFeeTxHandler.Selection selection = student.getLastSelection();
+            System.out.println("Fees " + selection.getFees() + " in " + selection.getElapsedNanos() / 1000 + " us");
+
+            Assertions.assertTrue(selection.isExact());
+            Assertions.assertTrue(verifier.check(allTxs, stx));
+        }
+    }
+
+    @Test
+    @DisplayName("Test 2: test handleTransactions() returning a mutually valid set with the heuristic")
+    public void test2() throws IOException {
+        for (int part = 1; part <= 3; part++) {
+            Transaction[] allTxs = readTransactions(part);
+
+            MaxFeeTxHandler student = new MaxFeeTxHandler(new UTXOPool(uPool), MaxFeeTxHandler.Mode.HEURISTIC);
+            Transaction[] stx = student.handleTxs(allTxs.clone());
+            MaxFeeTxHandler.Selection selection = student.getLastSelection();
+            System.out.println("Fees " + selection.getFees() + " in " + selection.getElapsedNanos() / 1000 + " us");
+
+            Assertions.assertFalse(selection.isExact());
+            Assertions.assertEquals(stx.length, new ReferenceTxHandler(uPool).handleTxs(stx).length);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 3: test handleTransactions() giving up on a pool that never commits")
+    public void test3() throws IOException {
+        UTXOPool failingPool = new UTXOPool(uPool) {
+            public boolean apply(UTXOBatch batch) {
+                return false;
+            }
+        };
+        Transaction[] allTxs = readTransactions(1);
+        MaxFeeTxHandler student = new MaxFeeTxHandler(failingPool, MaxFeeTxHandler.Mode.HEURISTIC);
+        Assertions.assertThrows(IllegalStateException.class, () -> student.handleTxs(allTxs.clone()));
+        Assertions.assertThrows(IllegalStateException.class, () -> new TxHandler(failingPool).handleTxs(allTxs.clone()));
+    }
+
+    private static Transaction[] readTransactions(int part) throws IOException {
+        return TransactionsArrayFileHandler.readTransactionsFromFile(getResourcePath("SampleMaxFeeTxsTest1-" + part + ".txt"));
+    }
+}
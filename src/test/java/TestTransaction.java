@@ -0,0 +1,199 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TestTransaction {
+    private ArrayList<Transaction> sampleTxs;
+
+    private static String getResourcePath(final String fileName) {
+        return TestTransaction.class.getResource(fileName).getPath();
+    }
+
+    public TestTransaction() throws IOException {
+        sampleTxs = new ArrayList<>();
+        for (int test = 1; test <= 8; test++) {
+            for (int part = 1; part <= 3; part++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-" + part + ".txt");
+                for (Transaction tx : TransactionsArrayFileHandler.readTransactionsFromFile(file))
+                    sampleTxs.add(tx);
+            }
+        }
+    }
+
+    // the sample hashes were computed from the original ArrayList<Byte> serialization
+    @Test
+    @DisplayName("Test 1: test getRawTx() producing the bytes the sample transaction hashes were computed from")
+    public void test1() throws NoSuchAlgorithmException {
+        for (Transaction tx : sampleTxs) {
+            byte[] rawTx = tx.getRawTx();
+            Assertions.assertEquals(tx.getRawTxSize(), rawTx.length);
+            Assertions.assertArrayEquals(tx.getHash(), MessageDigest.getInstance("SHA-256").digest(rawTx));
+        }
+    }
+
+    @Test
+    @DisplayName("Test 2: test writeRawTx() and writeRawDataToSign() into reused heap and direct buffers")
+    public void test2() {
+        ByteBuffer heap = ByteBuffer.allocate(1 << 16);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1 << 16);
+        for (Transaction tx : sampleTxs) {
+            for (ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+                buffer.clear();
+                tx.writeRawTx(buffer);
+                Assertions.assertArrayEquals(tx.getRawTx(), contents(buffer));
+
+                for (int i = 0; i < tx.numInputs(); i++) {
+                    buffer.clear();
+                    tx.writeRawDataToSign(i, buffer);
+                    Assertions.assertEquals(tx.getRawDataToSignSize(i), buffer.position());
+                    Assertions.assertArrayEquals(tx.getRawDataToSign(i), contents(buffer));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test 3: test getRawDataToSign() after the outputs of a transaction changed")
+    public void test3() {
+        Transaction sample = sampleTxs.get(sampleTxs.size() - 1);
+        Transaction tx = new Transaction();
+        tx.addInput(sample.getInput(0).prevTxHash, 0);
+        tx.addOutput(1.0, sample.getOutput(0).address);
+        Assertions.assertArrayEquals(rebuilt(tx).getRawDataToSign(0), tx.getRawDataToSign(0));
+
+        tx.addOutput(2.0, sample.getOutput(0).address);
+        Assertions.assertArrayEquals(rebuilt(tx).getRawDataToSign(0), tx.getRawDataToSign(0));
+
+        tx.getOutput(1).value = 3.0;
+        Assertions.assertArrayEquals(rebuilt(tx).getRawDataToSign(0), tx.getRawDataToSign(0));
+
+        tx.getOutput(0).address = new RSAKey(BigInteger.valueOf(3), BigInteger.valueOf(55));
+        Assertions.assertArrayEquals(rebuilt(tx).getRawDataToSign(0), tx.getRawDataToSign(0));
+
+        tx.getOutputs().remove(1);
+        Assertions.assertArrayEquals(rebuilt(tx).getRawDataToSign(0), tx.getRawDataToSign(0));
+        Assertions.assertArrayEquals(rebuilt(tx).getRawTx(), tx.getRawTx());
+    }
+
+    @Test
+    @DisplayName("Test 4: test finalize() and finalizeAll() reproducing the sample transaction hashes")
+    public void test4() {
+        Transaction[] copies = new Transaction[sampleTxs.size()];
+        for (int i = 0; i < copies.length; i++) {
+            Transaction tx = sampleTxs.get(i);
+            byte[] expected = tx.getHash();
+            tx.finalize();
+            Assertions.assertArrayEquals(expected, tx.getHash());
+
+            copies[i] = rebuilt(tx);
+            for (int j = 0; j < tx.numInputs(); j++)
+                copies[i].addSignature(tx.getInput(j).signature, j);
+        }
+
+        Transaction.finalizeAll(copies);
+        for (int i = 0; i < copies.length; i++)
+            Assertions.assertArrayEquals(sampleTxs.get(i).getHash(), copies[i].getHash());
+    }
+
+    @Test
+    @DisplayName("Test 5: test TransactionCodec reproducing every sample transaction from bytes and from a file")
+    public void test5() throws IOException {
+        for (Transaction tx : sampleTxs) {
+            byte[] record = TransactionCodec.encode(tx);
+            Assertions.assertEquals(TransactionCodec.encodedSize(tx), record.length);
+            assertSameTransaction(tx, TransactionCodec.decode(ByteBuffer.wrap(record)));
+        }
+
+        Transaction unfinished = new Transaction();
+        unfinished.addInput(null, -1);
+        unfinished.addOutput(Double.NaN, sampleTxs.get(0).getOutput(0).address);
+        Transaction copy = TransactionCodec.decode(ByteBuffer.wrap(TransactionCodec.encode(unfinished)));
+        Assertions.assertNull(copy.getHash());
+        Assertions.assertNull(copy.getInput(0).prevTxHash);
+        Assertions.assertNull(copy.getInput(0).signature);
+        Assertions.assertArrayEquals(unfinished.getRawTx(), copy.getRawTx());
+
+        Path file = Files.createTempFile("transactions", ".bin");
+        try {
+            Transaction[] txs = sampleTxs.toArray(new Transaction[0]);
+            TransactionCodec.write(file, txs);
+            Transaction[] read = TransactionCodec.read(file);
+            Assertions.assertEquals(txs.length, read.length);
+            for (int i = 0; i < txs.length; i++)
+                assertSameTransaction(txs[i], read[i]);
+
+            // outputs to the same address share one RSAKey
+            RSAKey first = read[0].getOutput(0).address;
+            int shared = 0;
+            for (Transaction tx : read) {
+                for (Transaction.Output op : tx.getOutputs()) {
+                    if (UTXOPool.isSameAddress(op.address, first)) {
+                        Assertions.assertSame(first, op.address);
+                        shared++;
+                    }
+                }
+            }
+            Assertions.assertTrue(shared > 1);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 6: test TransactionCodec rejecting truncated, corrupted and unknown records")
+    public void test6() {
+        byte[] record = TransactionCodec.encode(sampleTxs.get(0));
+        for (int length = 0; length < record.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(record, length));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> TransactionCodec.decode(truncated));
+        }
+
+        byte[] unknown = record.clone();
+        unknown[Integer.BYTES] = TransactionCodec.VERSION + 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TransactionCodec.decode(ByteBuffer.wrap(unknown)));
+
+        // A record that claims to be shorter than it is must not be read into the next one
+        byte[] shortened = Arrays.copyOf(record, 2 * record.length);
+        System.arraycopy(record, 0, shortened, record.length, record.length);
+        ByteBuffer.wrap(shortened).putInt(0, record.length - Integer.BYTES - 1);
+        ByteBuffer src = ByteBuffer.wrap(shortened);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TransactionCodec.decode(src));
+        Assertions.assertEquals(shortened.length, src.limit());
+    }
+
+    // builds a new transaction with the same contents, so it has no cached serialization yet
+    private static Transaction rebuilt(Transaction tx) {
+        Transaction copy = new Transaction();
+        for (Transaction.Input in : tx.getInputs())
+            copy.addInput(in.prevTxHash, in.outputIndex);
+        for (Transaction.Output op : tx.getOutputs())
+            copy.addOutput(op.value, op.address);
+        return copy;
+    }
+
+    private static void assertSameTransaction(Transaction expected, Transaction actual) {
+        Assertions.assertArrayEquals(expected.getHash(), actual.getHash());
+        Assertions.assertArrayEquals(expected.getRawTx(), actual.getRawTx());
+        Assertions.assertEquals(expected.numInputs(), actual.numInputs());
+        Assertions.assertEquals(expected.numOutputs(), actual.numOutputs());
+        for (int i = 0; i < expected.numOutputs(); i++)
+            Assertions.assertTrue(UTXOPool.isSameAddress(expected.getOutput(i).address, actual.getOutput(i).address));
+    }
+
+    private static byte[] contents(ByteBuffer buffer) {
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -3,6 +3,13 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class TestTxHandler {
     private UTXOPool uPool;
@@ -146,6 +153,490 @@ public class TestTxHandler {
         Assertions.assertTrue(verifyPoolUpdate(allTxs1, allTxs2, allTxs3, uPool));
     }
 
+    @Test
+    @DisplayName("Test 9: test handleTransactions() with a parallel signature verifier "
+            + "accepting the same transactions as the serial one")
+    public void test9() throws IOException {
+        ForkJoinPool executor = new ForkJoinPool(4);
+        try {
+            for (int test = 1; test <= 8; test++) {
+                for (int part = 1; part <= 3; part++) {
+                    String file = getResourcePath("SampleTxsTest" + test + "-" + part + ".txt");
+                    Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+
+                    TxHandler serial = new TxHandler(new UTXOPool(uPool));
+                    TxHandler parallel = new TxHandler(new UTXOPool(uPool), new SignatureVerifier(executor));
+                    for (Transaction tx : allTxs)
+                        Assertions.assertEquals(serial.isValidTx(tx), parallel.isValidTx(tx));
+
+                    Assertions.assertArrayEquals(serial.handleTxs(allTxs.clone()), parallel.handleTxs(allTxs.clone()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Test 10: test handleTransactions() with transactions "
+            + "proposed before the transactions they depend on")
+    public void test10() throws IOException {
+        String common = "SampleTxsTest5-";
+        String file1 = getResourcePath(common + "1.txt");
+        String file2 = getResourcePath(common + "2.txt");
+        String file3 = getResourcePath(common + "3.txt");
+        Transaction[] allTxs1 = reversed(TransactionsArrayFileHandler.readTransactionsFromFile(file1));
+        Transaction[] allTxs2 = reversed(TransactionsArrayFileHandler.readTransactionsFromFile(file2));
+        Transaction[] allTxs3 = reversed(TransactionsArrayFileHandler.readTransactionsFromFile(file3));
+
+        Assertions.assertTrue(verify(allTxs1, allTxs2, allTxs3, uPool));
+    }
+
+    @Test
+    @DisplayName("Test 11: test handleTransactions() with a verification cache "
+            + "accepting the same transactions, and reusing results for re-proposed transactions")
+    public void test11() throws IOException {
+        VerificationCache cache = new VerificationCache(10000);
+        for (int round = 0; round < 2; round++) {
+            for (int test = 1; test <= 8; test++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-1.txt");
+                Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+
+                TxHandler uncached = new TxHandler(new UTXOPool(uPool));
+                TxHandler cached = new TxHandler(new UTXOPool(uPool), new SignatureVerifier(null, cache));
+                Assertions.assertArrayEquals(uncached.handleTxs(allTxs.clone()), cached.handleTxs(allTxs.clone()));
+            }
+            if (round == 0)
+                Assertions.assertEquals(0, cache.getHits());
+        }
+        Assertions.assertTrue(cache.getHits() > 0);
+        Assertions.assertTrue(cache.getHitRate() > 0.4);
+    }
+
+    @Test
+    @DisplayName("Test 12: test isValidTx() with a verification cache rejecting transactions changed after they were verified")
+    public void test12() throws IOException {
+        Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(getResourcePath("SampleTxsTest1-1.txt"));
+        Transaction tx = allTxs[0];
+        VerificationCache cache = new VerificationCache(tx.numInputs());
+        TxHandler handler = new TxHandler(new UTXOPool(uPool), new SignatureVerifier(null, cache));
+
+        Assertions.assertTrue(handler.isValidTx(tx));
+        Assertions.assertTrue(handler.isValidTx(tx));
+        Assertions.assertEquals(tx.numInputs(), cache.getHits());
+
+        // Lowering an output keeps the values valid, but the signatures no longer match
+        double value = tx.getOutput(0).value;
+        tx.getOutput(0).value = value / 2;
+        Assertions.assertFalse(handler.isValidTx(tx));
+        tx.getOutput(0).value = value;
+        Assertions.assertTrue(handler.isValidTx(tx));
+
+        byte[] signature = tx.getInput(0).signature.clone();
+        signature[signature.length - 1] ^= 1;
+        Transaction forged = new Transaction(tx);
+        forged.addSignature(signature, 0);
+        Assertions.assertFalse(handler.isValidTx(forged));
+        Assertions.assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    @DisplayName("Test 13: test RSAVerifier giving the same results as RSAKey.verifySignature "
+            + "for valid, forged and malformed signatures")
+    public void test13() throws IOException {
+        Assertions.assertTrue(RSAVerifier.isEnabled());
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(getResourcePath("SampleKeyPairs.txt"));
+        Random random = new Random(13);
+        int valid = 0;
+        for (int test = 1; test <= 8; test++) {
+            String file = getResourcePath("SampleTxsTest" + test + "-1.txt");
+            for (Transaction tx : TransactionsArrayFileHandler.readTransactionsFromFile(file)) {
+                for (int i = 0; i < tx.numInputs(); i++) {
+                    byte[] message = tx.getRawDataToSign(i);
+                    byte[] signature = tx.getInput(i).signature;
+                    byte[] flipped = signature.clone();
+                    flipped[random.nextInt(flipped.length)] ^= 1 << random.nextInt(8);
+                    byte[] noise = new byte[signature.length];
+                    random.nextBytes(noise);
+                    byte[][] candidates = {signature, flipped, noise, Arrays.copyOf(signature, signature.length - 1), new byte[0]};
+
+                    for (RSAKeyPairHelper person : skp.getPeople()) {
+                        RSAKey address = person.getPublicKey();
+                        for (byte[] candidate : candidates) {
+                            boolean expected = address.verifySignature(message, candidate);
+                            Assertions.assertEquals(expected, RSAVerifier.verifySignature(address, message, candidate));
+                            if (expected)
+                                valid++;
+                        }
+                    }
+                }
+            }
+        }
+        Assertions.assertTrue(valid > 0);
+    }
+
+    @Test
+    @DisplayName("Test 14: test isValidTx() comparing values as exact fixed-point amounts "
+            + "and rejecting values whose sum overflows")
+    public void test14() throws IOException {
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(getResourcePath("SampleKeyPairs.txt"));
+        RSAKeyPairHelper person = skp.getPeople().get(0);
+        Transaction coinbase = new Transaction();
+        coinbase.addOutput(0.3, person.getPublicKey());
+        coinbase.addOutput(5e10, person.getPublicKey());
+        coinbase.addOutput(5e10, person.getPublicKey());
+        coinbase.addOutput(0, person.getPublicKey());
+        coinbase.addOutput(0.123456789, person.getPublicKey());
+        coinbase.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < coinbase.numOutputs(); i++)
+            pool.addUTXO(new UTXO(coinbase.getHash(), i), coinbase.getOutput(i));
+        TxHandler handler = new TxHandler(pool);
+
+        // 0.3 - 0.1 - 0.2 < 0 in doubles, but the amounts are equal
+        Transaction split = new Transaction();
+        split.addInput(coinbase.getHash(), 0);
+        split.addOutput(0.1, person.getPublicKey());
+        split.addOutput(0.2, person.getPublicKey());
+        Assertions.assertTrue(handler.isValidTx(signed(split, person)));
+        split.addOutputUnits(1, person.getPublicKey());
+        Assertions.assertFalse(handler.isValidTx(signed(split, person)));
+
+        // outputs of less than half a unit do not round away to nothing: 1000
+        // outputs of 4e-9 coins are worth more than a 0 input
+        Transaction dust = new Transaction();
+        dust.addInput(coinbase.getHash(), 3);
+        for (int i = 0; i < 1000; i++)
+            dust.addOutput(4e-9, person.getPublicKey());
+        Assertions.assertFalse(Amount.isExact(4e-9));
+        Assertions.assertFalse(handler.isValidTx(signed(dust, person)));
+
+        // values off the unit grid are compared exactly: an output may spend
+        // all of an input, but not a fraction of a unit more
+        Transaction same = new Transaction();
+        same.addInput(coinbase.getHash(), 4);
+        same.addOutput(0.123456789, person.getPublicKey());
+        Assertions.assertTrue(handler.isValidTx(signed(same, person)));
+        Transaction more = new Transaction();
+        more.addInput(coinbase.getHash(), 4);
+        more.addOutput(Math.nextUp(0.123456789), person.getPublicKey());
+        Assertions.assertFalse(handler.isValidTx(signed(more, person)));
+        Transaction less = new Transaction();
+        less.addInput(coinbase.getHash(), 4);
+        less.addOutput(0.12345678, person.getPublicKey());
+        Assertions.assertTrue(handler.isValidTx(signed(less, person)));
+
+        // 10^11 coins are more units than a long holds
+        Transaction merge = new Transaction();
+        merge.addInput(coinbase.getHash(), 1);
+        merge.addInput(coinbase.getHash(), 2);
+        merge.addOutput(1.0, person.getPublicKey());
+        Assertions.assertFalse(handler.isValidTx(signed(merge, person)));
+
+        Transaction notANumber = new Transaction();
+        notANumber.addInput(coinbase.getHash(), 1);
+        notANumber.addOutput(Double.NaN, person.getPublicKey());
+        Assertions.assertFalse(handler.isValidTx(signed(notANumber, person)));
+
+        Transaction units = new Transaction();
+        units.addInput(coinbase.getHash(), 0);
+        units.addOutputUnits(30_000_000, person.getPublicKey());
+        Assertions.assertEquals(0.3, units.getOutput(0).value);
+        Assertions.assertEquals(30_000_000, units.getOutput(0).getUnits());
+        Assertions.assertTrue(handler.isValidTx(signed(units, person)));
+    }
+
+    @Test
+    @DisplayName("Test 15: test EpochPipeline accepting the same transactions as handleTransactions() "
+            + "and stopping when its source or a commit fails")
+    public void test15() throws IOException {
+        for (int test = 1; test <= 8; test++) {
+            UTXOPool handled = new UTXOPool(uPool);
+            UTXOPool piped = new UTXOPool(uPool);
+            TxHandler handler = new TxHandler(handled);
+            // tiny queues and commit windows, so transactions overtake each other and windows are committed mid-epoch
+            EpochPipeline pipeline = new EpochPipeline(piped, new SignatureVerifier(), 3, 2, 3);
+            for (int part = 1; part <= 3; part++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-" + part + ".txt");
+                Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+                Transaction[] scheduled = new Transaction[allTxs.length];
+                int[] schedule = EpochScheduler.schedule(allTxs);
+                for (int i = 0; i < scheduled.length; i++)
+                    scheduled[i] = allTxs[schedule[i]];
+
+                List<Transaction> accepted = new ArrayList<>();
+                EpochPipeline.Stats stats = pipeline.run(Arrays.asList(scheduled).iterator(), accepted::add);
+                Assertions.assertArrayEquals(handler.handleTxs(allTxs.clone()), accepted.toArray());
+                Assertions.assertEquals(new HashSet<>(handled.getAllUTXO()), new HashSet<>(piped.getAllUTXO()));
+                for (EpochPipeline.Stage stage : EpochPipeline.Stage.values())
+                    Assertions.assertEquals(allTxs.length, stats.getTransactions(stage));
+                Assertions.assertEquals(accepted.size(), stats.getAccepted());
+            }
+        }
+
+        Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(getResourcePath("SampleTxsTest1-1.txt"));
+        Iterator<Transaction> failing = new Iterator<>() {
+            private int next;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Transaction next() {
+                if (next == allTxs.length)
+                    throw new IllegalStateException("source failed");
+                return allTxs[next++];
+            }
+        };
+        EpochPipeline pipeline = new EpochPipeline(new UTXOPool(uPool), new SignatureVerifier(), 2, 1, 1);
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> pipeline.run(failing, tx -> { }));
+        Assertions.assertEquals("source failed", e.getMessage());
+
+        // the second window fails to apply, so only the transactions of the first one are passed on
+        UTXOPool failingPool = new UTXOPool(uPool) {
+            private int applies;
+
+            @Override
+            public boolean apply(UTXOBatch batch) {
+                return ++applies == 1 && super.apply(batch);
+            }
+        };
+        List<Transaction> accepted = new ArrayList<>();
+        EpochPipeline failingPipeline = new EpochPipeline(failingPool, new SignatureVerifier(), 2, 4, 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> failingPipeline.run(Arrays.asList(allTxs).iterator(), accepted::add));
+        Assertions.assertEquals(Arrays.asList(allTxs[0]), accepted);
+        Assertions.assertTrue(failingPool.contains(new UTXO(allTxs[0].getHash(), 0)));
+        Assertions.assertFalse(failingPool.contains(new UTXO(allTxs[1].getHash(), 0)));
+        Assertions.assertEquals(1, failingPipeline.getStats().getAccepted());
+    }
+
+    @Test
+    @DisplayName("Test 16: test isValidTx() split into a precheck, which needs no pool, and the checks against the pool")
+    public void test16() throws IOException {
+        TxHandler handler = new TxHandler(uPool);
+        for (int test = 1; test <= 8; test++) {
+            String file = getResourcePath("SampleTxsTest" + test + "-1.txt");
+            for (Transaction tx : TransactionsArrayFileHandler.readTransactionsFromFile(file)) {
+                TxHandler.Precheck precheck = TxHandler.precheck(tx);
+                Assertions.assertSame(tx, precheck.getTransaction());
+                Assertions.assertEquals(handler.isValidTx(tx), handler.isValidTx(precheck));
+            }
+        }
+
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(getResourcePath("SampleKeyPairs.txt"));
+        RSAKeyPairHelper person = skp.getPeople().get(0);
+        Transaction coinbase = new Transaction();
+        for (int i = 0; i < 40; i++)
+            coinbase.addOutput(1.5, person.getPublicKey());
+        coinbase.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < coinbase.numOutputs(); i++)
+            pool.addUTXO(new UTXO(coinbase.getHash(), i), coinbase.getOutput(i));
+        TxHandler fanIn = new TxHandler(pool);
+
+        // more inputs than are compared pairwise
+        Transaction merge = new Transaction();
+        for (int i = 0; i < coinbase.numOutputs(); i++)
+            merge.addInput(coinbase.getHash(), i);
+        merge.addOutput(59.5, person.getPublicKey());
+        merge.addOutput(0.5, person.getPublicKey());
+        TxHandler.Precheck precheck = TxHandler.precheck(signed(merge, person));
+        Assertions.assertTrue(precheck.isValid());
+        Assertions.assertEquals(60 * Amount.UNITS_PER_COIN, precheck.getOutputUnits());
+        Assertions.assertTrue(fanIn.isValidTx(precheck));
+        // a pool without the inputs only fails the checks against the pool
+        Assertions.assertFalse(new TxHandler(new UTXOPool()).isValidTx(precheck));
+
+        merge.addInput(coinbase.getHash(), 7);
+        precheck = TxHandler.precheck(signed(merge, person));
+        Assertions.assertFalse(precheck.isValid());
+        Assertions.assertFalse(fanIn.isValidTx(precheck));
+
+        Transaction negative = new Transaction();
+        negative.addInput(coinbase.getHash(), 0);
+        negative.addOutput(2.0, person.getPublicKey());
+        negative.addOutput(-0.5, person.getPublicKey());
+        precheck = TxHandler.precheck(signed(negative, person));
+        Assertions.assertFalse(precheck.isValid());
+        Assertions.assertEquals(0, precheck.getOutputUnits());
+        Assertions.assertFalse(fanIn.isValidTx(precheck));
+    }
+
+    @Test
+    @DisplayName("Test 17: test handleTransactions() keeping transactions with missing parents in an OrphanPool "
+            + "and accepting them once their parents arrive")
+    public void test17() throws IOException {
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(getResourcePath("SampleKeyPairs.txt"));
+        RSAKeyPairHelper alice = skp.getPeople().get(0);
+        RSAKeyPairHelper bob = skp.getPeople().get(1);
+        Transaction coinbase = new Transaction();
+        for (int i = 0; i < 4; i++)
+            coinbase.addOutput(10, alice.getPublicKey());
+        coinbase.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < coinbase.numOutputs(); i++)
+            pool.addUTXO(new UTXO(coinbase.getHash(), i), coinbase.getOutput(i));
+        OrphanPool orphans = new OrphanPool(10, 2);
+        TxHandler handler = new TxHandler(pool, new SignatureVerifier(), orphans);
+
+        Transaction parent = new Transaction();
+        parent.addInput(coinbase.getHash(), 0);
+        parent.addOutput(10, bob.getPublicKey());
+        signed(parent, alice);
+        Transaction child = new Transaction();
+        child.addInput(parent.getHash(), 0);
+        child.addInput(coinbase.getHash(), 1);
+        child.addOutput(20, bob.getPublicKey());
+        child.addSignature(bob.getPrivateKey().sign(child.getRawDataToSign(0)), 0);
+        child.addSignature(alice.getPrivateKey().sign(child.getRawDataToSign(1)), 1);
+        child.finalize();
+        Transaction grandchild = new Transaction();
+        grandchild.addInput(child.getHash(), 0);
+        grandchild.addOutput(20, alice.getPublicKey());
+        signed(grandchild, bob);
+
+        // the descendants arrive first, and wait for their parent
+        Assertions.assertEquals(0, handler.handleTxs(new Transaction[]{grandchild, child}).length);
+        Assertions.assertEquals(2, orphans.size());
+        Assertions.assertTrue(orphans.contains(child.getHash()));
+        Assertions.assertTrue(orphans.contains(grandchild.getHash()));
+        Assertions.assertEquals(2, orphans.getMissingUTXOs());
+
+        // tryTxs ignores the orphans waiting for the parent, and leaves them waiting
+        Assertions.assertArrayEquals(new Transaction[]{parent}, handler.tryTxs(new Transaction[]{parent}));
+        Assertions.assertEquals(2, orphans.size());
+        Assertions.assertEquals(0, orphans.getReleased());
+        Assertions.assertFalse(pool.contains(new UTXO(parent.getHash(), 0)));
+
+        Transaction[] accepted = handler.handleTxs(new Transaction[]{parent});
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(parent, child, grandchild)), new HashSet<>(Arrays.asList(accepted)));
+        Assertions.assertEquals(0, orphans.size());
+        Assertions.assertEquals(0, orphans.getMissingUTXOs());
+        Assertions.assertEquals(2, orphans.getReleased());
+        Assertions.assertTrue(pool.contains(new UTXO(grandchild.getHash(), 0)));
+
+        // an input spent by the epoch is a double spend, not a missing parent
+        Transaction spend = new Transaction();
+        spend.addInput(coinbase.getHash(), 2);
+        spend.addOutput(10, bob.getPublicKey());
+        signed(spend, alice);
+        Transaction doubleSpend = new Transaction();
+        doubleSpend.addInput(coinbase.getHash(), 2);
+        doubleSpend.addOutput(9, bob.getPublicKey());
+        signed(doubleSpend, alice);
+        Assertions.assertEquals(1, handler.handleTxs(new Transaction[]{spend, doubleSpend}).length);
+        Assertions.assertEquals(0, orphans.size());
+
+        // nor is a transaction whose known inputs are not signed by their owner
+        Transaction forged = new Transaction();
+        forged.addInput(new byte[32], 0);
+        forged.addInput(coinbase.getHash(), 3);
+        forged.addOutput(1, bob.getPublicKey());
+        signed(forged, bob);
+        Assertions.assertEquals(0, handler.handleTxs(new Transaction[]{forged}).length);
+        Assertions.assertEquals(0, orphans.size());
+
+        // orphans are dropped after maxAge epochs, and the oldest first when the pool is full
+        Transaction stale = new Transaction();
+        stale.addInput(new byte[32], 1);
+        stale.addOutput(1, bob.getPublicKey());
+        signed(stale, alice);
+        handler.handleTxs(new Transaction[]{stale});
+        handler.handleTxs(new Transaction[0]);
+        handler.handleTxs(new Transaction[0]);
+        Assertions.assertTrue(orphans.contains(stale.getHash()));
+        handler.handleTxs(new Transaction[0]);
+        Assertions.assertFalse(orphans.contains(stale.getHash()));
+        Assertions.assertEquals(1, orphans.getEvicted());
+
+        OrphanPool small = new OrphanPool(1, 2);
+        TxHandler smallHandler = new TxHandler(pool, new SignatureVerifier(), small);
+        smallHandler.handleTxs(new Transaction[]{stale});
+        Transaction other = new Transaction();
+        other.addInput(new byte[32], 2);
+        other.addOutput(1, bob.getPublicKey());
+        signed(other, alice);
+        smallHandler.handleTxs(new Transaction[]{other});
+        Assertions.assertEquals(1, small.size());
+        Assertions.assertTrue(small.contains(other.getHash()));
+        Assertions.assertEquals(1, small.getEvicted());
+    }
+
+    @Test
+    @DisplayName("Test 18: test OrphanPool dropping a partly resolved orphan after maxAge epochs even once it was added back")
+    public void test18() throws IOException {
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(getResourcePath("SampleKeyPairs.txt"));
+        RSAKeyPairHelper alice = skp.getPeople().get(0);
+        RSAKeyPairHelper bob = skp.getPeople().get(1);
+        Transaction coinbase = new Transaction();
+        for (int i = 0; i < 2; i++)
+            coinbase.addOutput(10, alice.getPublicKey());
+        coinbase.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < coinbase.numOutputs(); i++)
+            pool.addUTXO(new UTXO(coinbase.getHash(), i), coinbase.getOutput(i));
+        OrphanPool orphans = new OrphanPool(10, 3);
+        TxHandler handler = new TxHandler(pool, new SignatureVerifier(), orphans);
+
+        Transaction parent = new Transaction();
+        parent.addInput(coinbase.getHash(), 0);
+        parent.addOutput(10, bob.getPublicKey());
+        signed(parent, alice);
+        // signed by the wrong owner, so it is rejected and its output never arrives
+        Transaction forged = new Transaction();
+        forged.addInput(coinbase.getHash(), 1);
+        forged.addOutput(10, bob.getPublicKey());
+        signed(forged, bob);
+        Transaction child = new Transaction();
+        child.addInput(parent.getHash(), 0);
+        child.addInput(forged.getHash(), 0);
+        child.addOutput(20, alice.getPublicKey());
+        signed(child, bob);
+        Transaction younger = new Transaction();
+        younger.addInput(new byte[32], 0);
+        younger.addOutput(1, bob.getPublicKey());
+        signed(younger, alice);
+
+        // epoch 1: child waits for both parents
+        handler.handleTxs(new Transaction[]{child});
+        // epoch 2: only forged is proposed, so child keeps waiting for both outputs
+        Transaction[] accepted = handler.handleTxs(new Transaction[]{forged, younger});
+        Assertions.assertEquals(0, accepted.length);
+        Assertions.assertEquals(2, orphans.size());
+        Assertions.assertEquals(3, orphans.getMissingUTXOs());
+        // epoch 3: both parents are proposed and child is released, but forged is rejected and child goes back
+        accepted = handler.handleTxs(new Transaction[]{parent, forged});
+        Assertions.assertArrayEquals(new Transaction[]{parent}, accepted);
+        Assertions.assertTrue(orphans.contains(child.getHash()));
+        Assertions.assertEquals(1, orphans.getReleased());
+        Assertions.assertEquals(2, orphans.getMissingUTXOs());
+
+        // epoch 4 is still within maxAge of epoch 1; epoch 5 is not, though younger, added later, stays
+        handler.handleTxs(new Transaction[0]);
+        Assertions.assertTrue(orphans.contains(child.getHash()));
+        handler.handleTxs(new Transaction[0]);
+        Assertions.assertFalse(orphans.contains(child.getHash()));
+        Assertions.assertTrue(orphans.contains(younger.getHash()));
+        Assertions.assertEquals(1, orphans.getMissingUTXOs());
+        handler.handleTxs(new Transaction[0]);
+        Assertions.assertEquals(0, orphans.size());
+        Assertions.assertEquals(0, orphans.getMissingUTXOs());
+    }
+
+    private static Transaction signed(Transaction tx, RSAKeyPairHelper signer) {
+        for (int i = 0; i < tx.numInputs(); i++)
+            tx.addSignature(signer.getPrivateKey().sign(tx.getRawDataToSign(i)), i);
+        tx.finalize();
+        return tx;
+    }
+
+    private static Transaction[] reversed(Transaction[] txs) {
+        Transaction[] reversed = new Transaction[txs.length];
+        for (int i = 0; i < txs.length; i++)
+            reversed[i] = txs[txs.length - 1 - i];
+        return reversed;
+    }
+
     private static boolean verify(Transaction[] allTxs1, UTXOPool uPool) {
         Transaction[] copyTxs1 = new Transaction[allTxs1.length];
         System.arraycopy(allTxs1, 0, copyTxs1, 0, copyTxs1.length);
@@ -0,0 +1,500 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestUTXOPool {
+    private UTXOPool uPool;
+    private SampleKeyPairs keyPairs;
+
+    private static String getResourcePath(final String fileName) {
+        return TestUTXOPool.class.getResource(fileName).getPath();
+    }
+
+    public TestUTXOPool() throws IOException {
+        String skpFile = getResourcePath("SampleKeyPairs.txt");
+        String supFile = getResourcePath("SampleUTXOPool.txt");
+        SampleKeyPairs skp = SampleKeyPairsFileHandler.readKeyPairsFromFile(skpFile);
+        SampleUTXOPool sup = SampleUTXOPoolFileHandler.readSampleUTXOPoolFromFile(skp, supFile);
+
+        uPool = sup.getPool();
+        keyPairs = skp;
+    }
+
+    @Test
+    @DisplayName("Test 1: test CompactUTXOPool holding the same UTXOs as UTXOPool under random additions and removals")
+    public void test1() {
+        assertBehavesLikeUTXOPool(new CompactUTXOPool());
+    }
+
+    @Test
+    @DisplayName("Test 2: test handleTransactions() on a CompactUTXOPool")
+    public void test2() throws IOException {
+        assertHandlesSamplesLikeUTXOPool(new CompactUTXOPool(uPool));
+    }
+
+    @Test
+    @DisplayName("Test 3: test MappedUTXOPool holding the same UTXOs as UTXOPool under random additions and removals")
+    public void test3() throws IOException {
+        Path directory = Files.createTempDirectory("utxos");
+        try (MappedUTXOPool pool = new MappedUTXOPool(directory)) {
+            assertBehavesLikeUTXOPool(pool);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 4: test handleTransactions() on a MappedUTXOPool, and reopening it")
+    public void test4() throws IOException {
+        Path directory = Files.createTempDirectory("utxos");
+        try {
+            UTXOPool expected;
+            try (MappedUTXOPool pool = new MappedUTXOPool(directory)) {
+                copyInto(uPool, pool);
+                assertHandlesSamplesLikeUTXOPool(pool);
+                expected = new UTXOPool(pool);
+            }
+
+            try (MappedUTXOPool reopened = new MappedUTXOPool(directory)) {
+                assertSameUTXOs(expected, reopened);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 5: test MappedUTXOPool reopening with the UTXOs of the last sync after a crash")
+    public void test5() throws IOException {
+        Path directory = Files.createTempDirectory("utxos");
+        Path crashed = Files.createTempDirectory("utxos");
+        try (MappedUTXOPool pool = new MappedUTXOPool(directory)) {
+            copyInto(uPool, pool);
+            UTXOPool synced = new UTXOPool(pool);
+
+            // Change the pool without syncing, then copy its files as a crash would leave them
+            ArrayList<UTXO> all = uPool.getAllUTXO();
+            for (int i = 0; i < all.size(); i += 2)
+                pool.removeUTXO(all.get(i));
+            Transaction.Output output = newOutput(1.5, uPool.getTxOutput(all.get(0)).address);
+            Random random = new Random(42);
+            for (int i = 0; i < 2000; i++) {
+                byte[] txHash = new byte[32];
+                random.nextBytes(txHash);
+                pool.addUTXO(new UTXO(txHash, 0), output);
+            }
+            for (Path file : Files.list(directory).toArray(Path[]::new))
+                Files.copy(file, crashed.resolve(file.getFileName()));
+            // A journal that was only partly written when the process died
+            Files.write(crashed.resolve("journal.log"), new byte[100], StandardOpenOption.APPEND);
+
+            try (MappedUTXOPool recovered = new MappedUTXOPool(crashed)) {
+                assertSameUTXOs(synced, recovered);
+            }
+
+            UTXOPool changed = new UTXOPool(pool);
+            pool.sync();
+            try (MappedUTXOPool reopened = new MappedUTXOPool(directory)) {
+                assertSameUTXOs(changed, reopened);
+            }
+        } finally {
+            delete(directory);
+            delete(crashed);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 6: test UTXOPoolFork changing only itself until it is committed")
+    public void test6() {
+        UTXOPool parent = new UTXOPool(uPool);
+        UTXOPoolFork fork = parent.fork();
+        assertBehavesLikeUTXOPool(fork);
+        assertSameUTXOs(uPool, parent);
+
+        // A fork of a fork only reaches the parent once both are committed
+        UTXOPoolFork nested = fork.fork();
+        UTXO spent = fork.getAllUTXO().get(0);
+        nested.removeUTXO(spent);
+        Assertions.assertFalse(nested.contains(spent));
+        Assertions.assertTrue(fork.contains(spent));
+        nested.commit();
+        Assertions.assertEquals(0, nested.numChanges());
+        Assertions.assertFalse(fork.contains(spent));
+        Assertions.assertEquals(uPool.contains(spent), parent.contains(spent));
+
+        UTXOPool expected = new UTXOPool(fork);
+        fork.commit();
+        assertSameUTXOs(expected, parent);
+
+        fork.removeUTXO(fork.getAllUTXO().get(0));
+        fork.discard();
+        assertSameUTXOs(expected, fork);
+        assertSameUTXOs(expected, parent);
+    }
+
+    @Test
+    @DisplayName("Test 7: test tryTxs() and handleTransactions() on a fork leaving the pool unchanged")
+    public void test7() throws IOException {
+        UTXOPool pool = new UTXOPool(uPool);
+        TxHandler handler = new TxHandler(pool);
+        for (int test = 1; test <= 8; test++) {
+            for (int part = 1; part <= 3; part++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-" + part + ".txt");
+                Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+                Transaction[] expected = new TxHandler(new UTXOPool(uPool)).handleTxs(allTxs.clone());
+                Assertions.assertArrayEquals(expected, handler.tryTxs(allTxs.clone()));
+                Assertions.assertArrayEquals(expected, new TxHandler(pool.fork()).handleTxs(allTxs.clone()));
+                assertSameUTXOs(uPool, pool);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test 8: test TxHandlers on several threads sharing a ConcurrentUTXOPool never spending a UTXO twice")
+    public void test8() throws Exception {
+        assertBehavesLikeUTXOPool(new ConcurrentUTXOPool());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int test = 1; test <= 8; test++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-1.txt");
+                Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+                ConcurrentUTXOPool pool = new ConcurrentUTXOPool(uPool);
+                ArrayList<Future<Transaction[]>> results = new ArrayList<>();
+                for (int thread = 0; thread < 8; thread++)
+                    results.add(executor.submit(() -> new TxHandler(pool).handleTxs(allTxs.clone())));
+
+                HashSet<UTXO> spent = new HashSet<>();
+                for (Future<Transaction[]> result : results) {
+                    for (Transaction tx : result.get()) {
+                        for (Transaction.Input input : tx.getInputs()) {
+                            UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                            Assertions.assertTrue(spent.add(utxo));
+                            Assertions.assertFalse(pool.contains(utxo));
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Test 9: test UTXOPool.apply() changing every kind of pool all at once or not at all")
+    public void test9() {
+        UTXOPool[] pools = {new UTXOPool(uPool), new CompactUTXOPool(uPool), new ConcurrentUTXOPool(uPool), new UTXOPool(uPool).fork()};
+        ArrayList<UTXO> all = uPool.getAllUTXO();
+        all.sort(null);
+        Transaction.Output output = uPool.getTxOutput(all.get(0));
+        UTXO created = new UTXO(new byte[32], 0);
+        UTXO createdAndSpent = new UTXO(new byte[32], 1);
+
+        for (UTXOPool pool : pools) {
+            UTXOBatch missing = new UTXOBatch();
+            missing.spend(all.get(0));
+            missing.spend(created);
+            missing.create(createdAndSpent, output);
+            Assertions.assertFalse(pool.apply(missing));
+            assertSameUTXOs(uPool, pool);
+
+            UTXOBatch twice = new UTXOBatch();
+            twice.spend(all.get(0));
+            twice.spend(new UTXO(all.get(0).getTxHash(), all.get(0).getIndex()));
+            Assertions.assertFalse(pool.apply(twice));
+            assertSameUTXOs(uPool, pool);
+
+            UTXOBatch batch = new UTXOBatch(2, 2);
+            batch.spend(all.get(0));
+            batch.create(created, output);
+            batch.create(createdAndSpent, output);
+            batch.spend(createdAndSpent);
+            batch.spend(all.get(1));
+            Assertions.assertEquals(2, batch.getSpends().size());
+            Assertions.assertEquals(1, batch.getCreations().size());
+            Assertions.assertTrue(pool.apply(batch));
+
+            UTXOPool expected = new UTXOPool(uPool);
+            expected.removeUTXO(all.get(0));
+            expected.removeUTXO(all.get(1));
+            expected.addUTXO(created, output);
+            assertSameUTXOs(expected, pool);
+            Assertions.assertFalse(pool.apply(batch));
+            assertSameUTXOs(expected, pool);
+        }
+
+        // a UTXO a CompactUTXOPool cannot store fails the batch before anything is spent
+        UTXOPool compact = new CompactUTXOPool(uPool);
+        UTXOBatch shortHash = new UTXOBatch();
+        shortHash.spend(all.get(0));
+        shortHash.create(new UTXO(new byte[20], 0), output);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> compact.apply(shortHash));
+        assertSameUTXOs(uPool, compact);
+    }
+
+    @Test
+    @DisplayName("Test 10: test IndexedUTXOPool answering address and transaction queries like a scan of the pool")
+    public void test10() throws IOException {
+        assertBehavesLikeUTXOPool(new IndexedUTXOPool(uPool));
+
+        IndexedUTXOPool pool = new IndexedUTXOPool(uPool);
+        assertSameQueries(new UTXOPool(pool), pool);
+        for (int test = 1; test <= 8; test++) {
+            String file = getResourcePath("SampleTxsTest" + test + "-1.txt");
+            Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+            UTXOPoolFork fork = pool.fork();
+            new TxHandler(fork).handleTxs(allTxs.clone());
+            assertSameQueries(new UTXOPool(fork), fork);
+            fork.commit();
+            assertSameQueries(new UTXOPool(pool), pool);
+        }
+        Assertions.assertEquals(0, new IndexedUTXOPool().getUTXOsOf(keyPairs.getPeople().get(0).getPublicKey()).size());
+        Assertions.assertEquals(0, new IndexedUTXOPool().getUnspentIndices(new byte[32]).length);
+    }
+
+    @Test
+    @DisplayName("Test 11: test streams, parallel streams and cursors visiting every UTXO of each kind of pool once")
+    public void test11() throws IOException {
+        Random random = new Random(11);
+        UTXOPool expected = new UTXOPool(uPool);
+        Transaction.Output output = uPool.getTxOutput(uPool.getAllUTXO().get(0));
+        for (int i = 0; i < 5000; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            expected.addUTXO(new UTXO(txHash, i % 3), output);
+        }
+
+        Path directory = Files.createTempDirectory("utxos");
+        try (MappedUTXOPool mapped = new MappedUTXOPool(directory)) {
+            copyInto(expected, mapped);
+            UTXOPoolFork fork = new CompactUTXOPool(expected).fork();
+
+            // changes since the last sync, and changes through the fork
+            ArrayList<UTXO> all = expected.getAllUTXO();
+            for (int i = 0; i < 100; i++) {
+                UTXO removed = all.get(i);
+                UTXO added = new UTXO(removed.getTxHash(), 3);
+                for (UTXOPool pool : new UTXOPool[] {expected, mapped, fork}) {
+                    pool.removeUTXO(removed);
+                    pool.addUTXO(added, output);
+                }
+            }
+
+            UTXOPool[] pools = {new UTXOPool(expected), new CompactUTXOPool(expected), new ConcurrentUTXOPool(expected),
+                    new IndexedUTXOPool(expected), mapped, fork};
+            HashSet<UTXO> utxos = new HashSet<>(expected.getAllUTXO());
+            double balance = expected.getAllUTXO().stream().mapToDouble(utxo -> expected.getTxOutput(utxo).value).sum();
+            for (UTXOPool pool : pools) {
+                Assertions.assertEquals(utxos, pool.stream().collect(Collectors.toSet()));
+                Assertions.assertEquals(utxos.size(), pool.stream().parallel().count());
+                Assertions.assertEquals(utxos.size(), pool.stream().parallel().distinct().count());
+                Assertions.assertEquals(balance, pool.stream().parallel().mapToDouble(utxo -> pool.getTxOutput(utxo).value).sum(), 1e-6);
+
+                UTXOCursor cursor = pool.cursor();
+                ArrayList<UTXO> paged = new ArrayList<>();
+                while (cursor.hasNext()) {
+                    ArrayList<UTXO> page = cursor.nextPage(1000);
+                    Assertions.assertTrue(page.size() > 0 && page.size() <= 1000);
+                    paged.addAll(page);
+                }
+                Assertions.assertTrue(cursor.nextPage(1000).isEmpty());
+                Assertions.assertEquals(utxos.size(), paged.size());
+                Assertions.assertEquals(utxos, new HashSet<>(paged));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 12: test LoggedUTXOPool holding the same UTXOs as UTXOPool under random additions and removals, "
+            + "and reopening from its checkpoint and log")
+    public void test12() throws IOException {
+        Path directory = Files.createTempDirectory("utxos");
+        try {
+            UTXOPool expected;
+            try (LoggedUTXOPool pool = new LoggedUTXOPool(directory, 7)) {
+                assertBehavesLikeUTXOPool(pool);
+                Assertions.assertTrue(pool.getLogRecords() < 7);
+                expected = new UTXOPool(pool);
+            }
+            try (LoggedUTXOPool reopened = new LoggedUTXOPool(directory, 7)) {
+                assertSameUTXOs(expected, reopened);
+                reopened.checkpoint();
+                Assertions.assertEquals(0, reopened.getLogRecords());
+            }
+            try (LoggedUTXOPool reopened = new LoggedUTXOPool(directory, 7)) {
+                assertSameUTXOs(expected, reopened);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 13: test handleTransactions() on a LoggedUTXOPool, and recovering it after a crash")
+    public void test13() throws IOException {
+        Path directory = Files.createTempDirectory("utxos");
+        Path crashed = Files.createTempDirectory("utxos");
+        try (LoggedUTXOPool pool = new LoggedUTXOPool(directory, 5)) {
+            copyInto(uPool, pool);
+            assertHandlesSamplesLikeUTXOPool(pool);
+            // more syncs than the checkpoint interval, so the pool reopens from a checkpoint and a log tail
+            Assertions.assertTrue(pool.getSequence() > 5);
+            Assertions.assertTrue(pool.getLogRecords() < 5);
+            try (LoggedUTXOPool reopened = new LoggedUTXOPool(directory, 5)) {
+                assertSameUTXOs(pool, reopened);
+            }
+            pool.checkpoint();
+            long sequence = pool.getSequence();
+
+            ArrayList<UTXO> all = pool.getAllUTXO();
+            pool.removeUTXO(all.get(0));
+            pool.sync();
+            Assertions.assertEquals(1, pool.getLogRecords());
+            UTXOPool logged = new UTXOPool(pool);
+
+            // Change the pool without syncing, then copy its files as a crash would leave them
+            for (int i = 1; i < all.size(); i += 2)
+                pool.removeUTXO(all.get(i));
+            for (Path file : Files.list(directory).toArray(Path[]::new))
+                Files.copy(file, crashed.resolve(file.getFileName()));
+            // A record that was only partly written when the process died
+            Files.write(crashed.resolve("utxos.log"), new byte[100], StandardOpenOption.APPEND);
+
+            try (LoggedUTXOPool recovered = new LoggedUTXOPool(crashed, 5)) {
+                assertSameUTXOs(logged, recovered);
+                Assertions.assertEquals(sequence + 1, recovered.getSequence());
+                // the torn record is cut off, so records written after recovery are found again
+                recovered.removeUTXO(all.get(2));
+                recovered.sync();
+                logged.removeUTXO(all.get(2));
+            }
+            try (LoggedUTXOPool reopened = new LoggedUTXOPool(crashed, 5)) {
+                assertSameUTXOs(logged, reopened);
+            }
+
+            UTXOPool changed = new UTXOPool(pool);
+            pool.sync();
+            try (LoggedUTXOPool reopened = new LoggedUTXOPool(directory, 5)) {
+                assertSameUTXOs(changed, reopened);
+            }
+        } finally {
+            delete(directory);
+            delete(crashed);
+        }
+    }
+
+    // checks that the queries of <actual> give the results of scanning <expected>, which holds the same UTXOs
+    private void assertSameQueries(UTXOPool expected, UTXOPool actual) {
+        for (RSAKeyPairHelper person : keyPairs.getPeople()) {
+            // a different RSAKey object with the same exponent and modulus owns the same UTXOs
+            RSAKey address = new RSAKey(person.getPublicKey().getExponent(), person.getPublicKey().getModulus());
+            ArrayList<UTXO> owned = actual.getUTXOsOf(address);
+            Assertions.assertEquals(new HashSet<>(expected.getUTXOsOf(person.getPublicKey())), new HashSet<>(owned));
+            Assertions.assertEquals(owned.size(), new HashSet<>(owned).size());
+        }
+        for (UTXO utxo : expected.getAllUTXO())
+            Assertions.assertArrayEquals(expected.getUnspentIndices(utxo.getTxHash()), actual.getUnspentIndices(utxo.getTxHash()));
+    }
+
+    // applies the same random additions and removals to <pool> and to a copy of it, comparing them along the way
+    private static void assertBehavesLikeUTXOPool(UTXOPool pool) {
+        Random random = new Random(42);
+        RSAKey[] addresses = new RSAKey[5];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = new RSAKey(BigInteger.valueOf(65537), new BigInteger(530, random));
+
+        UTXOPool expected = new UTXOPool(pool);
+        ArrayList<UTXO> known = pool.getAllUTXO();
+        for (int step = 0; step < 20000; step++) {
+            if (known.isEmpty() || random.nextInt(3) > 0) {
+                byte[] txHash = new byte[32];
+                random.nextBytes(txHash);
+                UTXO utxo = new UTXO(txHash, random.nextInt(4));
+                Transaction.Output output = newOutput(random.nextDouble(), addresses[random.nextInt(addresses.length)]);
+                expected.addUTXO(utxo, output);
+                pool.addUTXO(utxo, output);
+                known.add(utxo);
+            } else {
+                UTXO utxo = known.remove(random.nextInt(known.size()));
+                expected.removeUTXO(utxo);
+                pool.removeUTXO(utxo);
+            }
+
+            if (step % 1000 == 0) {
+                pool.sync();
+                for (UTXO utxo : known) {
+                    Assertions.assertTrue(pool.contains(utxo));
+                    Assertions.assertEquals(expected.getTxOutput(utxo).value, pool.getTxOutput(utxo).value);
+                    Assertions.assertSame(expected.getTxOutput(utxo).address, pool.getTxOutput(utxo).address);
+                    Assertions.assertTrue(pool.contains(utxo.getTxHash(), utxo.getIndex()));
+                    Assertions.assertFalse(pool.contains(utxo.getTxHash(), -1 - utxo.getIndex()));
+                    Assertions.assertEquals(expected.getTxOutput(utxo).value, pool.getTxOutput(utxo.getTxHash(), utxo.getIndex()).value);
+                    Assertions.assertNull(pool.getTxOutput(utxo.getTxHash(), -1 - utxo.getIndex()));
+                }
+                Assertions.assertEquals(new HashSet<>(expected.getAllUTXO()), new HashSet<>(pool.getAllUTXO()));
+            }
+        }
+        Assertions.assertEquals(new HashSet<>(expected.getAllUTXO()), new HashSet<>(new UTXOPool(pool).getAllUTXO()));
+    }
+
+    // creates outputs the way the grader does, see SampleUTXOPoolFileHandler
+    private static Transaction.Output newOutput(double value, RSAKey address) {
+        Transaction tx = new Transaction();
+        tx.addOutput(value, address);
+        return tx.getOutput(0);
+    }
+
+    // adds all UTXOs of <from> to <to> and syncs it
+    private static void copyInto(UTXOPool from, UTXOPool to) {
+        for (UTXO utxo : from.getAllUTXO())
+            to.addUTXO(utxo, from.getTxOutput(utxo));
+        to.sync();
+    }
+
+    private static void assertSameUTXOs(UTXOPool expected, UTXOPool actual) {
+        Assertions.assertEquals(new HashSet<>(expected.getAllUTXO()), new HashSet<>(actual.getAllUTXO()));
+        for (UTXO utxo : expected.getAllUTXO()) {
+            Transaction.Output output = actual.getTxOutput(utxo);
+            Assertions.assertEquals(expected.getTxOutput(utxo).value, output.value);
+            Assertions.assertEquals(expected.getTxOutput(utxo).address.getModulus(), output.address.getModulus());
+            Assertions.assertEquals(expected.getTxOutput(utxo).address.getExponent(), output.address.getExponent());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+                Files.delete(path);
+        }
+    }
+
+    // runs every sample epoch through a TxHandler on a copy of UTXOPool and one on <pool>
+    private void assertHandlesSamplesLikeUTXOPool(UTXOPool pool) throws IOException {
+        TxHandler expected = new TxHandler(new UTXOPool(uPool));
+        TxHandler actual = new TxHandler(pool);
+        for (int test = 1; test <= 8; test++) {
+            for (int part = 1; part <= 3; part++) {
+                String file = getResourcePath("SampleTxsTest" + test + "-" + part + ".txt");
+                Transaction[] allTxs = TransactionsArrayFileHandler.readTransactionsFromFile(file);
+                Assertions.assertArrayEquals(expected.handleTxs(allTxs.clone()), actual.handleTxs(allTxs.clone()));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class TestWorkloadGenerator {
+    private static WorkloadGenerator generator(long seed) {
+        return new WorkloadGenerator(seed)
+                .people(5)
+                .poolSize(300)
+                .epochSize(60)
+                .maxInputs(3)
+                .maxOutputs(3)
+                .chainDepth(3)
+                .chainRate(0.3)
+                .doubleSpendRate(0.1)
+                .invalidSignatureRate(0.1);
+    }
+
+    @Test
+    @DisplayName("Test 1: test the same seed giving the same workload file")
+    public void test1() throws IOException {
+        Path first = Files.createTempFile("workload", ".bin");
+        Path second = Files.createTempFile("workload", ".bin");
+        Path other = Files.createTempFile("workload", ".bin");
+        try {
+            generator(42).write(first, 2);
+            generator(42).write(second, 2);
+            generator(43).write(other, 2);
+            Assertions.assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+            Assertions.assertFalse(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(other)));
+        } finally {
+            Files.delete(first);
+            Files.delete(second);
+            Files.delete(other);
+        }
+    }
+
+    @Test
+    @DisplayName("Test 2: test handleTransactions() accepting exactly the transactions the workload file expects")
+    public void test2() throws IOException {
+        Path file = Files.createTempFile("workload", ".bin");
+        try {
+            generator(7).write(file, 3);
+            try (WorkloadReader reader = new WorkloadReader(file)) {
+                Assertions.assertEquals(7, reader.getSeed());
+                UTXOPool pool = new UTXOPool();
+                Assertions.assertEquals(300, reader.readPool(pool));
+                TxHandler handler = new TxHandler(pool);
+
+                int epochs = 0;
+                int rejected = 0;
+                for (WorkloadReader.Epoch epoch; (epoch = reader.readEpoch()) != null; epochs++) {
+                    Transaction[] txs = epoch.getTransactions();
+                    Assertions.assertEquals(60, txs.length);
+                    HashSet<Transaction> accepted = new HashSet<>(Arrays.asList(handler.handleTxs(txs.clone())));
+                    for (int i = 0; i < txs.length; i++)
+                        Assertions.assertEquals(epoch.isAccepted(i), accepted.contains(txs[i]));
+                    rejected += txs.length - epoch.numAccepted();
+                }
+                Assertions.assertEquals(3, epochs);
+                Assertions.assertTrue(rejected > 0);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}